@@ -0,0 +1,23 @@
+package com.example.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * benchmarks.jar のエントリポイント。JMH の通常の引数（-f, -wi, 正規表現など）をそのまま受け付け、
+ * 常に gc プロファイラを付けて1操作あたりの割り当て量（gc.alloc.rate.norm）も出す。
+ *
+ * 例: java -jar target/benchmarks.jar VectorCodec -f 1
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.job;
+
+import com.example.util.Chunk;
+import com.example.util.Chunker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 大きな FAQ ドキュメントのチャンク分割（Q: 単位の splitFaqIntoChunks と固定長の Chunker.split）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ChunkingBenchmark {
+    // Q&A の組数（1組あたり約200文字）
+    @Param({"1000", "10000"})
+    public int entries;
+
+    private String document;
+
+    @Setup
+    public void setup() {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < entries; i++) {
+            sb.append("Q: 項目").append(i).append("のパスワードを忘れた場合はどうすればよいですか？\n");
+            sb.append("A: 設定画面の「パスワード再設定」から登録メールアドレスを入力してください。")
+                    .append("数分以内に再設定用のリンクが届きます。届かない場合は迷惑メールフォルダも確認してください。\n");
+            sb.append("   Reference: https://example.com/faq/").append(i).append("\n\n");
+        }
+        document = sb.toString();
+    }
+
+    @Benchmark
+    public List<String> splitFaqIntoChunks() {
+        return FaqIngestor.splitFaqIntoChunks(document, "bench.md");
+    }
+
+    @Benchmark
+    public List<Chunk> chunkerSplit() {
+        return Chunker.split(document, "bench.md");
+    }
+}
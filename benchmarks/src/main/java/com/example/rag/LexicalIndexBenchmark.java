@@ -0,0 +1,66 @@
+package com.example.rag;
+
+import com.example.util.Chunk;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 語彙索引（BM25 + 文字 n-gram）の1クエリあたりの検索時間と、質問文の分かち書き
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class LexicalIndexBenchmark {
+    // 索引に載せる FAQ チャンク数
+    @Param({"1000", "20000"})
+    public int chunks;
+
+    private static final String[] WORDS = {
+            "パスワード", "リセット", "社員証", "紛失", "再発行", "残業", "申請", "勤怠", "管理", "ツール",
+            "上長", "連絡", "休暇", "処理", "ボーナス", "支給日", "経費", "精算", "承認", "ワークフロー",
+            "ログイン", "エラー", "ネットワーク", "プリンタ", "設定", "アカウント", "権限", "変更", "手続き", "窓口"};
+    private static final String QUESTION = "ログイン時にエラーコード E1042 が出てパスワードをリセットできません。どうすればいいですか？";
+
+    private LexicalIndex index;
+
+    @Setup
+    public void setup() {
+        // 日本語の定型文に識別子（エラーコード）が混ざった Q&A を作る
+        Random random = new Random(42);
+        index = new LexicalIndex(1.2, 0.75);
+        for (int i = 0; i < chunks; i++) {
+            StringBuilder sb = new StringBuilder("Q: ");
+            for (int w = 0; w < 4; w++) sb.append(WORDS[random.nextInt(WORDS.length)]).append("の");
+            sb.append("方法は？\nA: ");
+            for (int w = 0; w < 25; w++) sb.append(WORDS[random.nextInt(WORDS.length)]).append(w % 5 == 4 ? "してください。" : "を");
+            sb.append(" エラーコード E").append(1000 + random.nextInt(chunks)).append(" の場合は窓口へ。");
+            index.add(new Chunk("doc-" + (i / 20), "FAQ", sb.toString()));
+        }
+    }
+
+    @Benchmark
+    public List<Chunk> search() {
+        return index.search(QUESTION, 20);
+    }
+
+    @Benchmark
+    public List<String> tokenize() {
+        return LexicalIndex.tokenize(QUESTION);
+    }
+}
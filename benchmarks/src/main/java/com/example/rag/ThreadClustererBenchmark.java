@@ -0,0 +1,63 @@
+package com.example.rag;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * スレッド要約の代表メッセージ抽出（HDBSCAN + 重心に最も近いメッセージの選択）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ThreadClustererBenchmark {
+    // スレッド内のメッセージ数
+    @Param({"50", "300"})
+    public int messages;
+
+    private final ThreadClusterer clusterer = new ThreadClusterer();
+    private List<double[]> embeddings;
+    private List<String> texts;
+
+    @Setup
+    public void setup() {
+        // 1536次元で、話題（クラスタ中心）の周りに散らばったメッセージを作る
+        Random random = new Random(42);
+        int dim = 1536;
+        int topics = 5;
+        double[][] centers = new double[topics][dim];
+        for (double[] c : centers) {
+            for (int d = 0; d < dim; d++) c[d] = random.nextGaussian();
+        }
+        embeddings = new ArrayList<>(messages);
+        texts = new ArrayList<>(messages);
+        for (int i = 0; i < messages; i++) {
+            double[] center = centers[i % topics];
+            double[] e = new double[dim];
+            for (int d = 0; d < dim; d++) e[d] = center[d] + random.nextGaussian() * 0.3;
+            embeddings.add(e);
+            texts.add("message-" + i);
+        }
+    }
+
+    @Benchmark
+    public List<String> clusterAndExtractRepresentatives() {
+        return clusterer.clusterAndExtractRepresentatives(embeddings, texts);
+    }
+}
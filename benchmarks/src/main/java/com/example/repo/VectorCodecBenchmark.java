@@ -0,0 +1,61 @@
+package com.example.repo;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 1536次元ベクトルの pgvector 向け変換（バイナリ送信・テキスト表現・テキストからのパース）
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VectorCodecBenchmark {
+    private float[] vector;
+    private String text;
+    private byte[] buffer;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        vector = new float[1536];
+        for (int i = 0; i < vector.length; i++) {
+            vector[i] = (float) (random.nextGaussian() * 0.05);
+        }
+        text = VectorCodec.toParameter(vector).getValue();
+        buffer = new byte[4 + vector.length * 4];
+    }
+
+    @Benchmark
+    public byte[] toBinary() {
+        PGBinaryObject param = (PGBinaryObject) VectorCodec.toParameter(vector);
+        param.toBytes(buffer, 0);
+        return buffer;
+    }
+
+    @Benchmark
+    public String toText() {
+        PGobject param = VectorCodec.toParameter(vector);
+        return param.getValue();
+    }
+
+    @Benchmark
+    public float[] parseText() {
+        return VectorCodec.parse(text);
+    }
+}
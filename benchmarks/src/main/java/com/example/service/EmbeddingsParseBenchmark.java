@@ -0,0 +1,58 @@
+package com.example.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Embeddings API のレスポンス（1536次元 × inputs 件）を OpenAiClient.embed と同じ手順で double[] にする
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class EmbeddingsParseBenchmark {
+    @Param({"1", "32"})
+    public int inputs;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private byte[] response;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        StringBuilder sb = new StringBuilder("{\"object\":\"list\",\"data\":[");
+        for (int n = 0; n < inputs; n++) {
+            if (n > 0) sb.append(',');
+            sb.append("{\"object\":\"embedding\",\"index\":").append(n).append(",\"embedding\":[");
+            for (int i = 0; i < 1536; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(random.nextGaussian() * 0.05);
+            }
+            sb.append("]}");
+        }
+        sb.append("],\"model\":\"text-embedding-3-small\",\"usage\":{\"prompt_tokens\":8,\"total_tokens\":8}}");
+        response = sb.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public List<double[]> parse() throws Exception {
+        return OpenAiClient.parseEmbeddings(mapper.readTree(response));
+    }
+}
@@ -0,0 +1,53 @@
+package com.example.slackbot.util;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.nio.charset.StandardCharsets;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Slack リクエスト署名（HMAC-SHA256）の検証。イベント1件ごとに走る
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class SlackSignatureVerifierBenchmark {
+    private static final String SECRET = "8f742231b10e8888abcd99yyyzzz85a5";
+    private static final String TIMESTAMP = "1531420618";
+
+    private String body;
+    private String signature;
+
+    @Setup
+    public void setup() throws Exception {
+        // app_mention 相当のペイロード（約2KB）
+        StringBuilder sb = new StringBuilder("{\"token\":\"x\",\"team_id\":\"T0001\",\"event\":{\"type\":\"app_mention\",\"text\":\"");
+        while (sb.length() < 2000) sb.append("<@U0LAN0Z89> パスワードを忘れた場合はどうすればいいですか？ ");
+        body = sb.append("\"}}").toString();
+
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(SECRET.getBytes(StandardCharsets.UTF_8), "HmacSHA256"));
+        byte[] raw = mac.doFinal(("v0:" + TIMESTAMP + ":" + body).getBytes(StandardCharsets.UTF_8));
+        signature = "v0=" + HexFormat.of().formatHex(raw);
+    }
+
+    @Benchmark
+    public boolean isValid() {
+        return SlackSignatureVerifier.isValid(SECRET, TIMESTAMP, body, signature);
+    }
+}
@@ -1,27 +1,85 @@
 package com.example.job;
 
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
+import com.example.rag.LexicalIndex;
+import com.example.rag.VectorStore;
 import com.example.service.OpenAiClient;
+import com.example.service.RequestPriority;
+import com.example.service.SemanticAnswerCache;
+import com.example.repo.EmbeddingStore;
 import com.example.repo.FaqRepository;
+import com.example.repo.VectorCodec;
+import com.example.util.Chunk;
+import com.example.util.ContentHash;
+import com.example.util.TokenEstimator;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
 
 public class FaqIngestor {
+    private static final LatencyHistogram INGEST_LATENCY = MetricsRegistry.global().stage("ingest.total");
+    private static final LatencyHistogram FLUSH_LATENCY = MetricsRegistry.global().stage("ingest.flush");
+    private static final LatencyHistogram EMBED_LATENCY = MetricsRegistry.global().stage("ingest.embed");
+    private static final LongAdder INSERTED = MetricsRegistry.global()
+            .counter("ingest_chunks_total", "FAQ chunks processed by the ingestor", "result", "inserted");
+    private static final LongAdder SKIPPED = MetricsRegistry.global()
+            .counter("ingest_chunks_total", "FAQ chunks processed by the ingestor", "result", "duplicate");
+
     private final OpenAiClient openAiClient;
     private final FaqRepository faqRepository;
+    private final EmbeddingStore embeddingStore;
     private String faqPath;
+    private int batchSize = 64;
+    private int maxBatchTokens = 100_000;
+    private VectorStore vectorStore;
+    private LexicalIndex lexicalIndex;
+    private SemanticAnswerCache answerCache;
 
     // Setterを用意（Springの<property>で注入される）
     public void setFaqPath(String faqPath) {
         this.faqPath = faqPath;
     }
 
-    public FaqIngestor(OpenAiClient openAiClient, FaqRepository faqRepository) {
+    // 1回の Embeddings 呼び出しに詰めるチャンク数の上限（1なら従来どおり1件ずつ）
+    public void setBatchSize(int batchSize) {
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    // 1回の Embeddings 呼び出しに詰める見積もりトークン数の上限
+    public void setMaxBatchTokens(int maxBatchTokens) {
+        this.maxBatchTokens = Math.max(1, maxBatchTokens);
+    }
+
+    // 書き込んだチャンクを反映する VectorStore（インメモリ索引を使う場合）
+    public void setVectorStore(VectorStore vectorStore) {
+        this.vectorStore = vectorStore;
+    }
+
+    // 書き込んだチャンクを反映する語彙索引（BM25）
+    public void setLexicalIndex(LexicalIndex lexicalIndex) {
+        this.lexicalIndex = lexicalIndex;
+    }
+
+    // チャンクが変わったドキュメントの回答キャッシュを無効化する
+    public void setAnswerCache(SemanticAnswerCache answerCache) {
+        this.answerCache = answerCache;
+    }
+
+    public FaqIngestor(OpenAiClient openAiClient, FaqRepository faqRepository, EmbeddingStore embeddingStore) {
         this.openAiClient = openAiClient;
         this.faqRepository = faqRepository;
+        this.embeddingStore = embeddingStore;
     }
 
     public void ingest() {
@@ -41,43 +99,138 @@ public class FaqIngestor {
     // ★ログを追加
     public void ingest(Path root) throws IOException {
         System.out.println("[FaqIngestor] ingest() called with root=" + root.toAbsolutePath());
+        long start = System.nanoTime();
 
-        Files.walk(root)
-                .filter(p -> p.toString().endsWith(".md"))
-                .forEach(p -> {
-                    System.out.println("[FaqIngestor] Processing file: " + p);
-                    try {
-                        String doc = Files.readString(p);
-                        List<String> chunks = splitFaqIntoChunks(doc, p.getFileName().toString());
-                        System.out.println("[FaqIngestor] Split into " + chunks.size() + " chunks");
-
-                        for (String chunk : chunks) {
-                            if (faqRepository.exists(p.getFileName().toString(), "FAQ", chunk)) {
-                                System.out.println("[FaqIngestor] Skip duplicate chunk for file=" + p.getFileName());
-                                continue;
-                            }
-
-                            System.out.println("[FaqIngestor] Embedding chunk (length=" + chunk.length() + ")");
-                            List<double[]> embList = openAiClient.embed(List.of(chunk));
-                            double[] emb = embList.get(0);
-
-                            faqRepository.insert(p.getFileName().toString(), "FAQ", chunk, emb);
-                            System.out.println("[FaqIngestor] Inserted chunk into DB for file=" + p.getFileName());
-                        }
-                    } catch (Exception e) {
-                        System.err.println("[FaqIngestor] ERROR during ingestion for file=" + p);
-                        e.printStackTrace();
-                        throw new RuntimeException("Ingestion failed for " + p, e);
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(root)) {
+            files = walk.filter(p -> p.toString().endsWith(".md")).sorted().toList();
+        }
+
+        // Embedding待ちのチャンクを溜めて、件数・トークン予算のどちらかに達したらまとめて処理する
+        List<Chunk> pending = new ArrayList<>();
+        int pendingTokens = 0;
+
+        for (Path p : files) {
+            System.out.println("[FaqIngestor] Processing file: " + p);
+            String docId = p.getFileName().toString();
+            try {
+                String doc = Files.readString(p);
+                List<String> chunks = splitFaqIntoChunks(doc, docId);
+                System.out.println("[FaqIngestor] Split into " + chunks.size() + " chunks");
+
+                for (String chunk : chunks) {
+                    int tokens = TokenEstimator.estimate(chunk);
+                    if (!pending.isEmpty()
+                            && (pending.size() >= batchSize || pendingTokens + tokens > maxBatchTokens)) {
+                        flush(pending);
+                        pending.clear();
+                        pendingTokens = 0;
                     }
-                });
+                    pending.add(new Chunk(docId, "FAQ", chunk));
+                    pendingTokens += tokens;
+                }
+            } catch (Exception e) {
+                System.err.println("[FaqIngestor] ERROR during ingestion for file=" + p);
+                e.printStackTrace();
+                throw new RuntimeException("Ingestion failed for " + p, e);
+            }
+        }
 
+        if (!pending.isEmpty()) {
+            flush(pending);
+        }
+
+        INGEST_LATENCY.since(start);
         System.out.println("[FaqIngestor] ingest() completed for root=" + root.toAbsolutePath());
     }
 
+    /**
+     * 溜まったチャンクを1回の Embeddings 呼び出し + JDBC バッチで書き込む。
+     * faq_chunks に既にあるチャンクは1クエリでまとめて除外し、
+     * コンテンツハッシュで保存済みの Embedding があれば API には送らない。
+     */
+    private void flush(List<Chunk> pending) {
+        long start = System.nanoTime();
+        try {
+            flushBatch(pending);
+        } finally {
+            FLUSH_LATENCY.since(start);
+        }
+    }
+
+    private void flushBatch(List<Chunk> pending) {
+        Map<String, Chunk> byChunkHash = new LinkedHashMap<>();
+        for (Chunk c : pending) {
+            byChunkHash.putIfAbsent(ContentHash.ofChunk(c.docId(), c.section(), c.content()), c);
+        }
+        Set<String> existing = faqRepository.existingHashes(byChunkHash.keySet());
+        byChunkHash.keySet().removeAll(existing);
+        if (byChunkHash.isEmpty()) {
+            SKIPPED.add(pending.size());
+            System.out.println("[FaqIngestor] Skip " + pending.size() + " duplicate chunks");
+            return;
+        }
+        List<Chunk> batch = new ArrayList<>(byChunkHash.values());
+
+        List<String> hashes = new ArrayList<>(batch.size());
+        for (Chunk c : batch) {
+            hashes.add(ContentHash.of(OpenAiClient.EMBEDDING_MODEL, c.content()));
+        }
+        Map<String, float[]> stored = embeddingStore.findAll(new LinkedHashSet<>(hashes));
+
+        // 未保存のテキストだけを重複なしで集める
+        Map<String, String> missing = new LinkedHashMap<>();
+        for (int i = 0; i < batch.size(); i++) {
+            if (!stored.containsKey(hashes.get(i))) {
+                missing.putIfAbsent(hashes.get(i), batch.get(i).content());
+            }
+        }
+
+        Map<String, float[]> vectors = new HashMap<>(stored);
+        if (!missing.isEmpty()) {
+            System.out.println("[FaqIngestor] Embedding batch: " + missing.size() + " texts"
+                    + " (reused=" + (batch.size() - missing.size()) + ")");
+            List<String> missingHashes = new ArrayList<>(missing.keySet());
+            List<float[]> embList = new ArrayList<>(missingHashes.size());
+            long embedStart = System.nanoTime();
+            for (double[] emb : openAiClient.embed(new ArrayList<>(missing.values()), RequestPriority.BACKGROUND)) {
+                embList.add(VectorCodec.toFloats(emb));
+            }
+            EMBED_LATENCY.since(embedStart);
+            for (int i = 0; i < missingHashes.size(); i++) {
+                vectors.put(missingHashes.get(i), embList.get(i));
+            }
+            embeddingStore.saveAll(missingHashes, OpenAiClient.EMBEDDING_MODEL, embList);
+        }
+
+        List<float[]> embeddings = new ArrayList<>(batch.size());
+        for (String hash : hashes) {
+            embeddings.add(vectors.get(hash));
+        }
+        faqRepository.insertAll(batch, embeddings);
+        if (vectorStore != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                vectorStore.add(batch.get(i), embeddings.get(i));
+            }
+        }
+        if (lexicalIndex != null) {
+            for (Chunk c : batch) lexicalIndex.add(c);
+        }
+        if (answerCache != null) {
+            Set<String> docIds = new LinkedHashSet<>();
+            for (Chunk c : batch) docIds.add(c.docId());
+            answerCache.invalidateDocuments(docIds);
+        }
+        INSERTED.add(batch.size());
+        SKIPPED.add(pending.size() - batch.size());
+        System.out.println("[FaqIngestor] Inserted " + batch.size() + " chunks into DB"
+                + " (skipped duplicates=" + (pending.size() - batch.size()) + ")");
+    }
+
     /**
      * 質問＋回答単位でチャンク化する
      */
-    private List<String> splitFaqIntoChunks(String faqText, String docId) {
+    static List<String> splitFaqIntoChunks(String faqText, String docId) {
         List<String> chunks = new ArrayList<>();
         String[] lines = faqText.split("\n");
 
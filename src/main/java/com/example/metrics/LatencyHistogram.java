@@ -0,0 +1,97 @@
+package com.example.metrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * HdrHistogram と同じ考え方の対数線形バケットで所要時間を記録するヒストグラム。
+ * マイクロ秒単位で、2 の冪ごとに 16 分割したバケットに数える（相対誤差はおよそ 6% 以内）。
+ * 記録はロックなしの加算だけなので、ホットパスに置いても負担は小さい。
+ */
+public class LatencyHistogram {
+    private static final int SUB_BITS = 4;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int MAX_EXPONENT = 40; // 2^40 µs ≒ 12日
+
+    private final AtomicLongArray buckets = new AtomicLongArray((MAX_EXPONENT - SUB_BITS + 2) * SUB_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sumMicros = new LongAdder();
+    private final LongAccumulator maxMicros = new LongAccumulator(Math::max, 0);
+
+    public void recordNanos(long nanos) {
+        long micros = Math.max(0, nanos / 1_000);
+        buckets.incrementAndGet(indexOf(micros));
+        count.increment();
+        sumMicros.add(micros);
+        maxMicros.accumulate(micros);
+    }
+
+    /**
+     * System.nanoTime() で取った開始時刻から今までを記録する
+     */
+    public void since(long startNanos) {
+        recordNanos(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * future の完了時（成功・失敗とも）に開始時刻からの所要時間を記録して、同じ future を返す
+     */
+    public <T> CompletableFuture<T> time(CompletableFuture<T> future, long startNanos) {
+        future.whenComplete((r, e) -> since(startNanos));
+        return future;
+    }
+
+    public long count() {
+        return count.sum();
+    }
+
+    public double sumSeconds() {
+        return sumMicros.sum() / 1_000_000.0;
+    }
+
+    public double maxSeconds() {
+        return maxMicros.get() / 1_000_000.0;
+    }
+
+    /**
+     * 分位点（0.0〜1.0）の値を秒で返す。バケットの上端を返すので実測より少し大きめになる。
+     */
+    public double quantileSeconds(double q) {
+        long total = 0;
+        long[] snapshot = new long[buckets.length()];
+        for (int i = 0; i < snapshot.length; i++) {
+            snapshot[i] = buckets.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0) return 0.0;
+
+        long rank = Math.max(1, (long) Math.ceil(q * total));
+        long seen = 0;
+        for (int i = 0; i < snapshot.length; i++) {
+            seen += snapshot[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), maxMicros.get()) / 1_000_000.0;
+            }
+        }
+        return maxSeconds();
+    }
+
+    // 16 未満はそのまま、それ以上は (指数, 上位4ビット) でバケットを決める
+    static int indexOf(long micros) {
+        if (micros < SUB_COUNT) return (int) micros;
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(micros), MAX_EXPONENT);
+        int shift = exponent - SUB_BITS;
+        int sub = (int) ((Math.min(micros, (2L << MAX_EXPONENT) - 1) >>> shift) & (SUB_COUNT - 1));
+        return (exponent - SUB_BITS + 1) * SUB_COUNT + sub;
+    }
+
+    static long upperBound(int index) {
+        if (index < SUB_COUNT) return index;
+        int exponent = index / SUB_COUNT + SUB_BITS - 1;
+        int shift = exponent - SUB_BITS;
+        long lower = (long) (SUB_COUNT + index % SUB_COUNT) << shift;
+        return lower + (1L << shift) - 1;
+    }
+}
@@ -0,0 +1,152 @@
+package com.example.metrics;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.DoubleSupplier;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * プロセス全体のメトリクスを持つ軽量レジストリ。Prometheus のテキスト形式で書き出せる。
+ * Spring の XML コンテキストと Web コンテキストの両方から同じものを見るため、{@link #global()} を使う。
+ *
+ * <ul>
+ *   <li>histogram: 所要時間（{@link LatencyHistogram}。summary として分位点・合計・件数を出す）</li>
+ *   <li>counter: 単調増加のカウンタ。既存の AtomicLong などは関数で登録できる</li>
+ *   <li>gauge: キュー長などの現在値（取得時に関数を呼ぶ）</li>
+ * </ul>
+ */
+public class MetricsRegistry {
+    private static final MetricsRegistry GLOBAL = new MetricsRegistry();
+    private static final double[] QUANTILES = {0.5, 0.9, 0.95, 0.99};
+
+    private final Map<String, Family> families = new TreeMap<>();
+
+    public static MetricsRegistry global() {
+        return GLOBAL;
+    }
+
+    /**
+     * 処理段階ごとの所要時間（stage_latency_seconds{stage="..."}）
+     */
+    public LatencyHistogram stage(String stage) {
+        return histogram("stage_latency_seconds", "Latency of each processing stage", "stage", stage);
+    }
+
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) register(name, help, "summary", labels, LatencyHistogram::new);
+    }
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) register(name, help, "counter", labels, LongAdder::new);
+    }
+
+    /**
+     * 既存のカウンタ（キャッシュのヒット数など）を関数で登録する。同じ名前・ラベルなら後勝ち
+     */
+    public void counter(String name, String help, LongSupplier value, String... labels) {
+        put(name, help, "counter", labels, value);
+    }
+
+    public void gauge(String name, String help, DoubleSupplier value, String... labels) {
+        put(name, help, "gauge", labels, value);
+    }
+
+    private synchronized Object register(String name, String help, String type, String[] labels,
+                                         Supplier<Object> factory) {
+        return family(name, help, type).series.computeIfAbsent(labelString(labels), k -> factory.get());
+    }
+
+    private synchronized void put(String name, String help, String type, String[] labels, Object value) {
+        family(name, help, type).series.put(labelString(labels), value);
+    }
+
+    private Family family(String name, String help, String type) {
+        Family f = families.computeIfAbsent(name, k -> new Family(help, type));
+        if (!f.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as " + f.type);
+        }
+        return f;
+    }
+
+    /**
+     * Prometheus テキスト形式（version 0.0.4）で全メトリクスを書き出す
+     */
+    public String scrape() {
+        Map<String, Family> copy = new TreeMap<>();
+        synchronized (this) {
+            families.forEach((name, f) -> copy.put(name, f.copy()));
+        }
+
+        StringBuilder out = new StringBuilder();
+        copy.forEach((name, f) -> {
+            out.append("# HELP ").append(name).append(' ').append(f.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(f.type).append('\n');
+            f.series.forEach((labels, value) -> {
+                if (value instanceof LatencyHistogram h) {
+                    for (double q : QUANTILES) {
+                        sample(out, name, withQuantile(labels, q), h.quantileSeconds(q));
+                    }
+                    sample(out, name + "_sum", labels, h.sumSeconds());
+                    sample(out, name + "_count", labels, h.count());
+                } else if (value instanceof LongAdder c) {
+                    sample(out, name, labels, c.sum());
+                } else if (value instanceof LongSupplier s) {
+                    sample(out, name, labels, s.getAsLong());
+                } else if (value instanceof DoubleSupplier s) {
+                    sample(out, name, labels, s.getAsDouble());
+                }
+            });
+        });
+        return out.toString();
+    }
+
+    private static void sample(StringBuilder out, String name, String labels, double value) {
+        out.append(name).append(labels).append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(String.format(Locale.ROOT, "%.6f", value));
+        }
+        out.append('\n');
+    }
+
+    // {key="value",...}（ラベルなしなら空文字）
+    private static String labelString(String[] labels) {
+        if (labels.length % 2 != 0) throw new IllegalArgumentException("labels must be key/value pairs");
+        if (labels.length == 0) return "";
+        StringBuilder sb = new StringBuilder("{");
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) sb.append(',');
+            sb.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return sb.append('}').toString();
+    }
+
+    private static String withQuantile(String labels, double q) {
+        String quantile = "quantile=\"" + q + "\"";
+        return labels.isEmpty() ? "{" + quantile + "}" : labels.substring(0, labels.length() - 1) + "," + quantile + "}";
+    }
+
+    private static final class Family {
+        final String help;
+        final String type;
+        final Map<String, Object> series = new LinkedHashMap<>();
+
+        Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        Family copy() {
+            Family f = new Family(help, type);
+            f.series.putAll(series);
+            return f;
+        }
+    }
+}
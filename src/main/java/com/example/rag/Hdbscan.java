@@ -0,0 +1,319 @@
+package com.example.rag;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.stream.IntStream;
+
+/**
+ * HDBSCAN の Java 実装（python/cluster.py の {@code hdbscan.HDBSCAN(min_cluster_size=5)} 相当）。
+ * ユークリッド距離、min_samples = min_cluster_size、クラスタ選択は EOM、単一クラスタは許可しない。
+ * 距離行列は持たずに必要なときに計算する（メモリは点数に比例。1万件のスレッドでも n×n の配列を作らない）。
+ * コア距離と Prim 法の距離更新は点ごとに並列で行う。
+ */
+public class Hdbscan {
+    private final int minClusterSize;
+    private final int minSamples;
+
+    public Hdbscan(int minClusterSize) {
+        this(minClusterSize, minClusterSize);
+    }
+
+    public Hdbscan(int minClusterSize, int minSamples) {
+        if (minClusterSize < 2) throw new IllegalArgumentException("minClusterSize must be >= 2");
+        this.minClusterSize = minClusterSize;
+        this.minSamples = Math.max(1, minSamples);
+    }
+
+    /**
+     * @return 各点のクラスタラベル（0始まり、ノイズは -1）
+     */
+    public int[] fit(List<double[]> points) {
+        int n = points.size();
+        int[] labels = new int[n];
+        Arrays.fill(labels, -1);
+        if (n < minClusterSize || n < 2) {
+            return labels;
+        }
+
+        double[][] data = points.toArray(new double[0][]);
+        double[] core = coreDistances(data);
+        double[][] mst = minimumSpanningTree(data, core);
+        int[][] children = new int[n - 1][2];
+        int[] sizes = new int[2 * n - 1];
+        double[] heights = singleLinkage(mst, n, children, sizes);
+
+        List<double[]> condensed = condenseTree(n, children, sizes, heights);
+        return label(condensed, n);
+    }
+
+    private static double distance(double[] a, double[] b) {
+        return Math.sqrt(squaredDistance(a, b, Double.POSITIVE_INFINITY));
+    }
+
+    // bound 以上になった時点で打ち切る（そのときの途中の値を返す）
+    private static double squaredDistance(double[] a, double[] b, double bound) {
+        double sum = 0;
+        for (int d = 0; d < a.length; d++) {
+            double diff = a[d] - b[d];
+            sum += diff * diff;
+            if ((d & 63) == 63 && sum >= bound) return sum;
+        }
+        return sum;
+    }
+
+    // 自分自身を除いて min_samples 番目に近い点までの距離（hdbscan と同じ定義。scikit-learn の HDBSCAN は自分を数える）。
+    // 行ごとに近い順の k 件（距離の2乗）だけを昇順の小さな配列に持つ
+    private double[] coreDistances(double[][] data) {
+        int n = data.length;
+        int k = Math.min(minSamples, n - 1);
+        double[] core = new double[n];
+        IntStream.range(0, n).parallel().forEach(i -> {
+            double[] nearest = new double[k];
+            Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+            for (int j = 0; j < n; j++) {
+                if (j == i) continue;
+                double d = squaredDistance(data[i], data[j], nearest[k - 1]);
+                if (d >= nearest[k - 1]) continue;
+                int pos = k - 1;
+                while (pos > 0 && nearest[pos - 1] > d) {
+                    nearest[pos] = nearest[pos - 1];
+                    pos--;
+                }
+                nearest[pos] = d;
+            }
+            core[i] = Math.sqrt(nearest[k - 1]);
+        });
+        return core;
+    }
+
+    // 相互到達距離 max(core_i, core_j, d_ij) 上の最小全域木（Prim 法）。各行は {from, to, weight}。
+    // 木に加えた点からの距離をその場で計算して best を更新する（点ごとに並列）
+    private static double[][] minimumSpanningTree(double[][] data, double[] core) {
+        int n = data.length;
+        boolean[] inTree = new boolean[n];
+        double[] best = new double[n];
+        int[] bestFrom = new int[n];
+        Arrays.fill(best, Double.POSITIVE_INFINITY);
+
+        double[][] edges = new double[n - 1][];
+        int current = 0;
+        inTree[0] = true;
+        for (int e = 0; e < n - 1; e++) {
+            int from = current;
+            IntStream.range(0, n).parallel().forEach(j -> {
+                if (inTree[j]) return;
+                // コア距離だけで best[j] を下回れないなら距離を計算しない
+                double floor = Math.max(core[from], core[j]);
+                if (floor >= best[j]) return;
+                double w = Math.max(distance(data[from], data[j]), floor);
+                if (w < best[j]) {
+                    best[j] = w;
+                    bestFrom[j] = from;
+                }
+            });
+            int next = -1;
+            double nextWeight = Double.POSITIVE_INFINITY;
+            for (int j = 0; j < n; j++) {
+                if (!inTree[j] && best[j] < nextWeight) {
+                    nextWeight = best[j];
+                    next = j;
+                }
+            }
+            edges[e] = new double[]{bestFrom[next], next, nextWeight};
+            inTree[next] = true;
+            current = next;
+        }
+        Arrays.sort(edges, (a, b) -> Double.compare(a[2], b[2]));
+        return edges;
+    }
+
+    /**
+     * MST の辺を重みの小さい順に併合して単連結の樹形図を作る。
+     * 内部ノード n + i の子を children[i]、各ノードの点数を sizes に入れ、併合距離を返す。
+     */
+    private static double[] singleLinkage(double[][] mst, int n, int[][] children, int[] sizes) {
+        int[] parent = new int[2 * n - 1];
+        for (int i = 0; i < parent.length; i++) parent[i] = i;
+        Arrays.fill(sizes, 0, n, 1);
+        double[] heights = new double[n - 1];
+
+        for (int i = 0; i < mst.length; i++) {
+            int a = find(parent, (int) mst[i][0]);
+            int b = find(parent, (int) mst[i][1]);
+            int node = n + i;
+            children[i][0] = a;
+            children[i][1] = b;
+            heights[i] = mst[i][2];
+            sizes[node] = sizes[a] + sizes[b];
+            parent[a] = node;
+            parent[b] = node;
+        }
+        return heights;
+    }
+
+    private static int find(int[] parent, int x) {
+        while (parent[x] != x) {
+            parent[x] = parent[parent[x]];
+            x = parent[x];
+        }
+        return x;
+    }
+
+    /**
+     * min_cluster_size 未満の枝を落とした凝縮木を作る。各行は {parent, child, lambda, childSize}。
+     * クラスタの番号は n から振る（n がルート）。
+     */
+    private List<double[]> condenseTree(int n, int[][] children, int[] sizes, double[] heights) {
+        int root = 2 * n - 2;
+        int[] relabel = new int[2 * n - 1];
+        boolean[] ignore = new boolean[2 * n - 1];
+        relabel[root] = n;
+        int nextLabel = n + 1;
+
+        List<double[]> rows = new ArrayList<>();
+        for (int node : bfs(root, n, children)) {
+            if (ignore[node] || node < n) continue;
+
+            int left = children[node - n][0];
+            int right = children[node - n][1];
+            double height = heights[node - n];
+            double lambda = height > 0 ? 1.0 / height : Double.POSITIVE_INFINITY;
+            int leftCount = sizes[left];
+            int rightCount = sizes[right];
+
+            if (leftCount >= minClusterSize && rightCount >= minClusterSize) {
+                relabel[left] = nextLabel++;
+                rows.add(new double[]{relabel[node], relabel[left], lambda, leftCount});
+                relabel[right] = nextLabel++;
+                rows.add(new double[]{relabel[node], relabel[right], lambda, rightCount});
+            } else if (leftCount < minClusterSize && rightCount < minClusterSize) {
+                fallOut(left, relabel[node], lambda, n, children, ignore, rows);
+                fallOut(right, relabel[node], lambda, n, children, ignore, rows);
+            } else if (leftCount < minClusterSize) {
+                relabel[right] = relabel[node];
+                fallOut(left, relabel[node], lambda, n, children, ignore, rows);
+            } else {
+                relabel[left] = relabel[node];
+                fallOut(right, relabel[node], lambda, n, children, ignore, rows);
+            }
+        }
+        return rows;
+    }
+
+    // 小さい枝の点をすべて親クラスタから lambda で脱落させる
+    private static void fallOut(int subRoot, int parentLabel, double lambda, int n, int[][] children,
+                                boolean[] ignore, List<double[]> rows) {
+        for (int sub : bfs(subRoot, n, children)) {
+            if (sub < n) {
+                rows.add(new double[]{parentLabel, sub, lambda, 1});
+            }
+            ignore[sub] = true;
+        }
+    }
+
+    private static List<Integer> bfs(int root, int n, int[][] children) {
+        List<Integer> order = new ArrayList<>();
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(root);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            order.add(node);
+            if (node >= n) {
+                queue.add(children[node - n][0]);
+                queue.add(children[node - n][1]);
+            }
+        }
+        return order;
+    }
+
+    /**
+     * 安定度で EOM 選択を行い、各点にラベルを付ける（ルート単独のクラスタは選ばない）
+     */
+    private int[] label(List<double[]> condensed, int n) {
+        Map<Integer, Double> birth = new HashMap<>();
+        Map<Integer, Double> stability = new HashMap<>();
+        Map<Integer, List<Integer>> clusterChildren = new HashMap<>();
+        int rootCluster = n;
+        birth.put(rootCluster, 0.0);
+        stability.put(rootCluster, 0.0);
+
+        // 同一ベクトルが多いと lambda が無限大になるので、有限の最大値に寄せる
+        double maxFinite = 0;
+        for (double[] row : condensed) {
+            if (!Double.isInfinite(row[2])) maxFinite = Math.max(maxFinite, row[2]);
+        }
+        for (double[] row : condensed) {
+            if (Double.isInfinite(row[2])) row[2] = maxFinite;
+        }
+
+        for (double[] row : condensed) {
+            int child = (int) row[1];
+            if (row[3] > 1) {
+                birth.put(child, row[2]);
+                stability.putIfAbsent(child, 0.0);
+                clusterChildren.computeIfAbsent((int) row[0], k -> new ArrayList<>()).add(child);
+            }
+        }
+        for (double[] row : condensed) {
+            int parent = (int) row[0];
+            stability.merge(parent, (row[2] - birth.get(parent)) * row[3], Double::sum);
+        }
+
+        // ルート以外を番号の大きい順（葉に近い順）に見る
+        TreeSet<Integer> selected = new TreeSet<>();
+        Map<Integer, Boolean> isCluster = new HashMap<>();
+        List<Integer> nodes = new ArrayList<>(stability.keySet());
+        nodes.sort((a, b) -> Integer.compare(b, a));
+        nodes.remove(Integer.valueOf(rootCluster));
+        for (int node : nodes) isCluster.put(node, true);
+
+        for (int node : nodes) {
+            double subtree = 0;
+            for (int child : clusterChildren.getOrDefault(node, List.of())) {
+                subtree += stability.get(child);
+            }
+            if (subtree > stability.get(node)) {
+                isCluster.put(node, false);
+                stability.put(node, subtree);
+            } else {
+                Deque<Integer> queue = new ArrayDeque<>(clusterChildren.getOrDefault(node, List.of()));
+                while (!queue.isEmpty()) {
+                    int sub = queue.poll();
+                    isCluster.put(sub, false);
+                    queue.addAll(clusterChildren.getOrDefault(sub, List.of()));
+                }
+            }
+        }
+        isCluster.forEach((c, sel) -> {
+            if (sel) selected.add(c);
+        });
+
+        Map<Integer, Integer> labelOf = new HashMap<>();
+        for (int c : selected) labelOf.put(c, labelOf.size());
+
+        // 選ばれたクラスタへの辺以外でつないで、各点の所属クラスタを求める
+        int maxId = n + 1;
+        for (double[] row : condensed) maxId = Math.max(maxId, (int) Math.max(row[0], row[1]) + 1);
+        int[] parent = new int[maxId];
+        for (int i = 0; i < maxId; i++) parent[i] = i;
+        for (double[] row : condensed) {
+            int child = (int) row[1];
+            if (!selected.contains(child)) {
+                parent[child] = (int) row[0];
+            }
+        }
+
+        int[] labels = new int[n];
+        for (int i = 0; i < n; i++) {
+            int c = find(parent, i);
+            labels[i] = c <= rootCluster ? -1 : labelOf.getOrDefault(c, -1);
+        }
+        return labels;
+    }
+}
@@ -0,0 +1,260 @@
+package com.example.rag;
+
+import com.example.repo.FaqRepository;
+import com.example.util.Chunk;
+import com.example.util.ContentHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.SplittableRandom;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * faq_chunks をメモリ上の HNSW (Hierarchical Navigable Small World) グラフに載せた VectorStore。
+ * 距離は pgvector の {@code <->} と同じ L2 距離（ここでは二乗値で比較）。
+ * 検索は読み取りロックで並行に、追加は書き込みロックで1件ずつ行う。
+ */
+public class HnswVectorStore implements VectorStore {
+    private static final Logger log = LoggerFactory.getLogger(HnswVectorStore.class);
+
+    private final FaqRepository faqRepository; // null なら DB なしで使う
+    private final int m;
+    private final int maxM0;
+    private final int efConstruction;
+    private volatile int efSearch;
+    private final double levelMultiplier;
+
+    private final List<Node> nodes = new ArrayList<>();
+    private final Set<String> keys = new HashSet<>();
+    private final SplittableRandom random = new SplittableRandom(42);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int entryPoint = -1;
+    private int maxLevel = -1;
+
+    public HnswVectorStore(int m, int efConstruction, int efSearch) {
+        this(null, m, efConstruction, efSearch);
+    }
+
+    public HnswVectorStore(FaqRepository faqRepository, int m, int efConstruction, int efSearch) {
+        if (m < 2) throw new IllegalArgumentException("m must be >= 2");
+        this.faqRepository = faqRepository;
+        this.m = m;
+        this.maxM0 = m * 2;
+        this.efConstruction = Math.max(efConstruction, m);
+        this.efSearch = Math.max(1, efSearch);
+        this.levelMultiplier = 1.0 / Math.log(m);
+    }
+
+    /**
+     * faq_chunks の全行からインデックスを構築する（Spring の init-method）
+     */
+    public void load() {
+        if (faqRepository == null) return;
+        long start = System.nanoTime();
+        faqRepository.forEachWithEmbedding(this::add);
+        log.info("HNSW index loaded: size={} m={} efConstruction={} efSearch={} elapsedMs={}",
+                size(), m, efConstruction, efSearch, (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public void setEfSearch(int efSearch) {
+        this.efSearch = Math.max(1, efSearch);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return nodes.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Chunk> search(float[] query, int k) {
+        lock.readLock().lock();
+        try {
+            if (entryPoint < 0) return List.of();
+
+            int ep = entryPoint;
+            for (int level = maxLevel; level > 0; level--) {
+                ep = greedyClosest(query, ep, level);
+            }
+            PriorityQueue<Candidate> found = searchLayer(query, ep, Math.max(efSearch, k), 0);
+
+            Candidate[] sorted = found.toArray(new Candidate[0]);
+            Arrays.sort(sorted);
+            List<Chunk> result = new ArrayList<>(Math.min(k, sorted.length));
+            for (int i = 0; i < sorted.length && i < k; i++) {
+                result.add(nodes.get(sorted[i].id).chunk);
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public void add(Chunk chunk, float[] embedding) {
+        String key = ContentHash.ofChunk(chunk.docId(), chunk.section(), chunk.content());
+
+        lock.writeLock().lock();
+        try {
+            if (!keys.add(key)) return;
+
+            int level = (int) (-Math.log(1.0 - random.nextDouble()) * levelMultiplier);
+            int id = nodes.size();
+            Node node = new Node(chunk, embedding.clone(), level, m, maxM0);
+            nodes.add(node);
+
+            if (entryPoint < 0) {
+                entryPoint = id;
+                maxLevel = level;
+                return;
+            }
+
+            int ep = entryPoint;
+            for (int l = maxLevel; l > level; l--) {
+                ep = greedyClosest(node.vector, ep, l);
+            }
+            for (int l = Math.min(level, maxLevel); l >= 0; l--) {
+                PriorityQueue<Candidate> found = searchLayer(node.vector, ep, efConstruction, l);
+                Candidate[] sorted = found.toArray(new Candidate[0]);
+                Arrays.sort(sorted);
+
+                int maxConn = l == 0 ? maxM0 : m;
+                for (int i = 0; i < sorted.length && i < m; i++) {
+                    connect(id, sorted[i].id, l, maxConn);
+                    connect(sorted[i].id, id, l, maxConn);
+                }
+                ep = sorted[0].id;
+            }
+
+            if (level > maxLevel) {
+                maxLevel = level;
+                entryPoint = id;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    // 近傍リストに追加し、溢れたら近い順に maxConn 件だけ残す
+    private void connect(int from, int to, int level, int maxConn) {
+        Node node = nodes.get(from);
+        int[] links = node.links[level];
+        int count = node.linkCount[level];
+        if (count < maxConn) {
+            links[count] = to;
+            node.linkCount[level] = count + 1;
+            return;
+        }
+
+        Candidate[] all = new Candidate[count + 1];
+        for (int i = 0; i < count; i++) {
+            all[i] = new Candidate(links[i], distance(node.vector, nodes.get(links[i]).vector));
+        }
+        all[count] = new Candidate(to, distance(node.vector, nodes.get(to).vector));
+        Arrays.sort(all);
+        for (int i = 0; i < maxConn; i++) {
+            links[i] = all[i].id;
+        }
+    }
+
+    private int greedyClosest(float[] query, int ep, int level) {
+        int current = ep;
+        float currentDist = distance(query, nodes.get(current).vector);
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            Node node = nodes.get(current);
+            for (int i = 0; i < node.linkCount[level]; i++) {
+                int next = node.links[level][i];
+                float d = distance(query, nodes.get(next).vector);
+                if (d < currentDist) {
+                    currentDist = d;
+                    current = next;
+                    changed = true;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * 1つの層で ef 件の近傍を探す。戻り値は遠い順に取り出せるヒープ。
+     */
+    private PriorityQueue<Candidate> searchLayer(float[] query, int ep, int ef, int level) {
+        BitSet visited = new BitSet(nodes.size());
+        PriorityQueue<Candidate> candidates = new PriorityQueue<>();
+        PriorityQueue<Candidate> found = new PriorityQueue<>((a, b) -> Float.compare(b.dist, a.dist));
+
+        Candidate start = new Candidate(ep, distance(query, nodes.get(ep).vector));
+        visited.set(ep);
+        candidates.add(start);
+        found.add(start);
+
+        while (!candidates.isEmpty()) {
+            Candidate c = candidates.poll();
+            if (c.dist > found.peek().dist && found.size() >= ef) break;
+
+            Node node = nodes.get(c.id);
+            if (level >= node.links.length) continue;
+            for (int i = 0; i < node.linkCount[level]; i++) {
+                int next = node.links[level][i];
+                if (visited.get(next)) continue;
+                visited.set(next);
+
+                float d = distance(query, nodes.get(next).vector);
+                if (found.size() < ef || d < found.peek().dist) {
+                    Candidate n = new Candidate(next, d);
+                    candidates.add(n);
+                    found.add(n);
+                    if (found.size() > ef) found.poll();
+                }
+            }
+        }
+        return found;
+    }
+
+    // 二乗 L2 距離
+    private static float distance(float[] a, float[] b) {
+        float sum = 0f;
+        for (int i = 0; i < a.length; i++) {
+            float d = a[i] - b[i];
+            sum += d * d;
+        }
+        return sum;
+    }
+
+    private static final class Node {
+        final Chunk chunk;
+        final float[] vector;
+        final int[][] links;
+        final int[] linkCount;
+
+        Node(Chunk chunk, float[] vector, int level, int m, int maxM0) {
+            this.chunk = chunk;
+            this.vector = vector;
+            this.links = new int[level + 1][];
+            this.linkCount = new int[level + 1];
+            for (int l = 0; l <= level; l++) {
+                links[l] = new int[l == 0 ? maxM0 : m];
+            }
+        }
+    }
+
+    private record Candidate(int id, float dist) implements Comparable<Candidate> {
+        @Override
+        public int compareTo(Candidate o) {
+            return Float.compare(dist, o.dist);
+        }
+    }
+}
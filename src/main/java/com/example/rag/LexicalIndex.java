@@ -0,0 +1,248 @@
+package com.example.rag;
+
+import com.example.repo.FaqRepository;
+import com.example.util.Chunk;
+import com.example.util.ContentHash;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * faq_chunks をメモリ上の転置インデックスに載せ、BM25 で語彙一致の検索をする。
+ * ベクトル検索が取りこぼしやすいエラーコード・識別子・製品名の完全一致を拾うためのもので、
+ * RagService でベクトル検索の結果と順位融合（RRF）して使う。
+ *
+ * 分かち書きは辞書を使わない文字 n-gram: 日本語など ASCII 以外の文字の並びは文字 bigram（1文字だけなら unigram）、
+ * ASCII の英数字の並びは1語のまま（"E1234" や "err_timeout" を崩さない）にする。NFKC 正規化と小文字化を先に行う。
+ * 検索は読み取りロックで並行に、追加は書き込みロックで行う。
+ */
+public class LexicalIndex {
+    private static final Logger log = LoggerFactory.getLogger(LexicalIndex.class);
+
+    private final FaqRepository faqRepository; // null なら DB なしで使う
+    private final double k1;
+    private final double b;
+
+    private final Map<String, Postings> postings = new HashMap<>();
+    private final List<Chunk> chunks = new ArrayList<>();
+    private final Set<String> keys = new HashSet<>();
+    private int[] lengths = new int[64];
+    private long totalLength;
+    // 文書長の正規化項 k1 * (1 - b + b * len / avgLength)。追加があれば次の検索で作り直す
+    private volatile Norms norms = new Norms(0, 0, new float[0]);
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private record Norms(int count, long totalLength, float[] values) {
+    }
+
+    // 語ごとの出現リスト（チャンク番号の昇順、同じ位置に語の出現回数）
+    private static final class Postings {
+        int[] docs = new int[4];
+        int[] freqs = new int[4];
+        int size;
+
+        void add(int doc, int freq) {
+            if (size == docs.length) {
+                docs = Arrays.copyOf(docs, size * 2);
+                freqs = Arrays.copyOf(freqs, size * 2);
+            }
+            docs[size] = doc;
+            freqs[size++] = freq;
+        }
+    }
+
+    public LexicalIndex(double k1, double b) {
+        this(null, k1, b);
+    }
+
+    public LexicalIndex(FaqRepository faqRepository, double k1, double b) {
+        if (k1 < 0 || b < 0 || b > 1) throw new IllegalArgumentException("k1 must be >= 0 and b in [0, 1]");
+        this.faqRepository = faqRepository;
+        this.k1 = k1;
+        this.b = b;
+    }
+
+    /**
+     * faq_chunks の全行からインデックスを構築する（Spring の init-method）
+     */
+    public void load() {
+        if (faqRepository == null) return;
+        long start = System.nanoTime();
+        faqRepository.forEachChunk(this::add);
+        log.info("Lexical index loaded: chunks={} terms={} elapsedMs={}",
+                size(), termCount(), (System.nanoTime() - start) / 1_000_000);
+    }
+
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return chunks.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    public int termCount() {
+        lock.readLock().lock();
+        try {
+            return postings.size();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * FaqIngestor が faq_chunks に書き込んだ後に呼ぶ。同じチャンク（doc_id / section / content が同じ）は1回だけ載せる
+     */
+    public void add(Chunk chunk) {
+        String key = ContentHash.ofChunk(chunk.docId(), chunk.section(), chunk.content());
+        // 分かち書きはロックの外で済ませる
+        Map<String, Integer> freqs = new HashMap<>();
+        List<String> terms = tokenize(chunk.content());
+        for (String t : terms) freqs.merge(t, 1, Integer::sum);
+
+        lock.writeLock().lock();
+        try {
+            if (!keys.add(key)) return;
+            int doc = chunks.size();
+            chunks.add(chunk);
+            if (doc == lengths.length) lengths = Arrays.copyOf(lengths, doc * 2);
+            lengths[doc] = terms.size();
+            totalLength += terms.size();
+            freqs.forEach((term, freq) -> postings.computeIfAbsent(term, t -> new Postings()).add(doc, freq));
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * BM25 のスコアが高い順に最大 k 件のチャンクを返す（どの語にも一致しなければ空）
+     */
+    public List<Chunk> search(String query, int k) {
+        Set<String> terms = new LinkedHashSet<>(tokenize(query));
+        if (terms.isEmpty() || k <= 0) return List.of();
+
+        lock.readLock().lock();
+        try {
+            int n = chunks.size();
+            if (n == 0) return List.of();
+            float[] norm = norms(n);
+
+            // 語を df の昇順に並べ、df が全体の半分を超える語（「ます」「して」のような bigram）は
+            // もっと絞り込める語があるときは飛ばす（idf が小さく順位にほとんど効かないのに出現リストが長い）
+            List<Postings> lists = new ArrayList<>(terms.size());
+            for (String term : terms) {
+                Postings p = postings.get(term);
+                if (p != null) lists.add(p);
+            }
+            if (lists.isEmpty()) return List.of();
+            lists.sort((x, y) -> Integer.compare(x.size, y.size));
+            int commonDf = n / 2;
+            boolean selective = lists.get(0).size <= commonDf;
+
+            double[] scores = new double[n];
+            for (Postings p : lists) {
+                if (selective && p.size > commonDf) break;
+                double idf = Math.log(1 + (n - p.size + 0.5) / (p.size + 0.5));
+                double weight = idf * (k1 + 1);
+                int[] docs = p.docs;
+                int[] freqs = p.freqs;
+                for (int i = 0; i < p.size; i++) {
+                    int doc = docs[i];
+                    int freq = freqs[i];
+                    scores[doc] += weight * freq / (freq + norm[doc]);
+                }
+            }
+
+            // 上位 k 件（スコアの小さいものを先頭に置いて入れ替える）
+            PriorityQueue<Integer> top = new PriorityQueue<>(k + 1, (x, y) -> Double.compare(scores[x], scores[y]));
+            for (int doc = 0; doc < n; doc++) {
+                if (scores[doc] <= 0) continue;
+                if (top.size() < k) {
+                    top.add(doc);
+                } else if (scores[doc] > scores[top.peek()]) {
+                    top.poll();
+                    top.add(doc);
+                }
+            }
+            Chunk[] result = new Chunk[top.size()];
+            for (int i = result.length - 1; i >= 0; i--) result[i] = chunks.get(top.poll());
+            return Arrays.asList(result);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    // 読み取りロックの中で呼ぶ。同時に作り直しても結果は同じなので、後勝ちで差し替えてよい
+    private float[] norms(int n) {
+        Norms current = norms;
+        if (current.count() == n && current.totalLength() == totalLength) return current.values();
+        double avgLength = Math.max(1.0, (double) totalLength / n);
+        float[] values = new float[n];
+        for (int doc = 0; doc < n; doc++) {
+            values[doc] = (float) (k1 * (1 - b + b * lengths[doc] / avgLength));
+        }
+        norms = new Norms(n, totalLength, values);
+        return values;
+    }
+
+    /**
+     * 索引と検索で共通の分かち書き（文字 n-gram）
+     */
+    public static List<String> tokenize(String text) {
+        List<String> terms = new ArrayList<>();
+        if (text == null || text.isEmpty()) return terms;
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+
+        int i = 0;
+        int len = s.length();
+        while (i < len) {
+            char c = s.charAt(i);
+            if (isWordChar(c)) {
+                int start = i;
+                while (i < len && isWordChar(s.charAt(i))) i++;
+                terms.add(s.substring(start, i));
+            } else if (Character.isLetterOrDigit(s.codePointAt(i))) {
+                int start = i;
+                while (i < len && !isWordChar(s.charAt(i)) && Character.isLetterOrDigit(s.codePointAt(i))) {
+                    i += Character.charCount(s.codePointAt(i));
+                }
+                addBigrams(s, start, i, terms);
+            } else {
+                i++;
+            }
+        }
+        return terms;
+    }
+
+    private static void addBigrams(String s, int start, int end, List<String> terms) {
+        int first = start;
+        int second = first + Character.charCount(s.codePointAt(first));
+        if (second >= end) {
+            terms.add(s.substring(first, end));
+            return;
+        }
+        while (second < end) {
+            int next = second + Character.charCount(s.codePointAt(second));
+            terms.add(s.substring(first, next));
+            first = second;
+            second = next;
+        }
+    }
+
+    private static boolean isWordChar(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= '0' && c <= '9') || c == '_';
+    }
+}
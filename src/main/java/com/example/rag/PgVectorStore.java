@@ -0,0 +1,27 @@
+package com.example.rag;
+
+import com.example.repo.FaqRepository;
+import com.example.util.Chunk;
+
+import java.util.List;
+
+/**
+ * faq_chunks に対して pgvector の {@code <->} で検索する実装（従来の挙動）。
+ */
+public class PgVectorStore implements VectorStore {
+    private final FaqRepository faqRepository;
+
+    public PgVectorStore(FaqRepository faqRepository) {
+        this.faqRepository = faqRepository;
+    }
+
+    @Override
+    public List<Chunk> search(float[] query, int k) {
+        return faqRepository.search(query, k);
+    }
+
+    @Override
+    public void add(Chunk chunk, float[] embedding) {
+        // faq_chunks には FaqIngestor が書き込み済みなので何もしない
+    }
+}
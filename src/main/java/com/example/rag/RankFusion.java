@@ -0,0 +1,41 @@
+package com.example.rag;
+
+import com.example.util.Chunk;
+import com.example.util.ContentHash;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 複数の検索結果の順位融合（Reciprocal Rank Fusion）。
+ * 各リストで r 位（1始まり）のチャンクに 1 / (k + r) を足し、合計の大きい順に並べる。
+ * スコアの尺度が違う BM25 と L2 距離をそのまま比べずに済む。同点は先に渡したリストでの順位が上のものを優先する。
+ */
+public final class RankFusion {
+
+    private RankFusion() {
+    }
+
+    public static List<Chunk> reciprocalRank(List<List<Chunk>> rankings, int k, int limit) {
+        Map<String, Chunk> chunks = new LinkedHashMap<>();
+        Map<String, Double> scores = new LinkedHashMap<>();
+        for (List<Chunk> ranking : rankings) {
+            for (int r = 0; r < ranking.size(); r++) {
+                Chunk c = ranking.get(r);
+                String key = ContentHash.ofChunk(c.docId(), c.section(), c.content());
+                chunks.putIfAbsent(key, c);
+                scores.merge(key, 1.0 / (k + r + 1), Double::sum);
+            }
+        }
+        List<String> keys = new ArrayList<>(scores.keySet());
+        // List.sort は安定なので、同点は最初に現れた順（先のリストの上位）のまま
+        keys.sort((a, b) -> Double.compare(scores.get(b), scores.get(a)));
+        List<Chunk> fused = new ArrayList<>(Math.min(limit, keys.size()));
+        for (int i = 0; i < keys.size() && i < limit; i++) {
+            fused.add(chunks.get(keys.get(i)));
+        }
+        return fused;
+    }
+}
@@ -1,19 +1,19 @@
 package com.example.rag;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
 
-import java.io.*;
 import java.util.*;
 
 /**
- * EmbeddingベクトルをPythonのHDBSCANスクリプトでクラスタリングし、
+ * EmbeddingベクトルをHDBSCAN（Java実装）でクラスタリングし、
  * 各クラスタから代表メッセージを抽出するユーティリティ。
  */
 public class ThreadClusterer {
 
-    // 仮想環境のPython実行ファイルパス（環境に合わせて変更）
-    private final String pythonPath = "venv\\Scripts\\python"; // Windows例
-    private final String scriptPath = "python/cluster.py";
+    // python/cluster.py と同じ min_cluster_size
+    private static final int MIN_CLUSTER_SIZE = 5;
+    private static final LatencyHistogram CLUSTER_LATENCY = MetricsRegistry.global().stage("cluster.hdbscan");
 
     /**
      * @param embeddings 各メッセージのEmbeddingベクトル (double[] のリスト)
@@ -26,82 +26,48 @@ public class ThreadClusterer {
         }
 
         try {
-            // JSON入力を構築
-            Map<String, Object> payload = new HashMap<>();
-            payload.put("embeddings", embeddings);
-            payload.put("messages", messages);
-
-            ObjectMapper mapper = new ObjectMapper();
-            String jsonInput = mapper.writeValueAsString(payload);
-
-            // Pythonプロセス起動
-            ProcessBuilder pb = new ProcessBuilder(pythonPath, scriptPath);
-            Process process = pb.start();
-
-            // 標準入力にJSONを渡す
-            try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(process.getOutputStream()))) {
-                writer.write(jsonInput);
-                writer.flush();
+            long start = System.nanoTime();
+            int[] labels = new Hdbscan(MIN_CLUSTER_SIZE).fit(embeddings);
+            CLUSTER_LATENCY.since(start);
+
+            // クラスタごとに、重心に最も近いメッセージを代表にする（ノイズ -1 はスキップ）
+            Map<Integer, List<Integer>> clusters = new TreeMap<>();
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == -1) continue;
+                clusters.computeIfAbsent(labels[i], k -> new ArrayList<>()).add(i);
             }
 
-            // 標準出力から結果を受け取る
-            StringBuilder output = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    output.append(line);
+            List<String> representatives = new ArrayList<>();
+            for (List<Integer> indices : clusters.values()) {
+                int dim = embeddings.get(indices.get(0)).length;
+                double[] centroid = new double[dim];
+                for (int idx : indices) {
+                    double[] e = embeddings.get(idx);
+                    for (int d = 0; d < dim; d++) centroid[d] += e[d];
                 }
-            }
-
-            // エラーストリームも確認（デバッグ用）
-            try (BufferedReader errReader = new BufferedReader(new InputStreamReader(process.getErrorStream()))) {
-                String errLine;
-                while ((errLine = errReader.readLine()) != null) {
-                    System.err.println("[Python Error] " + errLine);
+                for (int d = 0; d < dim; d++) centroid[d] /= indices.size();
+
+                int repIndex = indices.get(0);
+                double best = Double.POSITIVE_INFINITY;
+                for (int idx : indices) {
+                    double[] e = embeddings.get(idx);
+                    double sum = 0;
+                    for (int d = 0; d < dim; d++) {
+                        double diff = e[d] - centroid[d];
+                        sum += diff * diff;
+                    }
+                    if (sum < best) {
+                        best = sum;
+                        repIndex = idx;
+                    }
                 }
+                representatives.add(messages.get(repIndex));
             }
 
-            // プロセス終了待機
-            process.waitFor();
-
-            // JSONをパースして代表メッセージを返す
-            Map<?, ?> result = mapper.readValue(output.toString(), Map.class);
-            List<String> representatives = (List<String>) result.get("representatives");
-
             // フォールバック処理: 代表が空なら複数基準で選ぶ
-            if (representatives == null || representatives.isEmpty()) {
+            if (representatives.isEmpty()) {
                 System.err.println("[Clusterer Warning] No representatives extracted. Applying fallback strategy.");
-
-                List<String> fallback = new ArrayList<>();
-
-                // 1. 最初のメッセージ
-                if (!messages.isEmpty()) {
-                    fallback.add(messages.get(0));
-                }
-
-                // 2. 最後のメッセージ
-                if (messages.size() > 1) {
-                    fallback.add(messages.get(messages.size() - 1));
-                }
-
-                // 3. 最長メッセージ
-                String longest = messages.stream()
-                        .max(Comparator.comparingInt(String::length))
-                        .orElse(null);
-                if (longest != null && !fallback.contains(longest)) {
-                    fallback.add(longest);
-                }
-
-                // 4. 最新3件
-                int n = Math.min(3, messages.size());
-                List<String> latest = messages.subList(messages.size() - n, messages.size());
-                for (String msg : latest) {
-                    if (!fallback.contains(msg)) {
-                        fallback.add(msg);
-                    }
-                }
-
-                representatives = fallback;
+                representatives = fallback(messages);
             }
 
             return representatives;
@@ -109,36 +75,40 @@ public class ThreadClusterer {
             e.printStackTrace();
             // フォールバック処理: エラー時も最新N件を返す
             System.err.println("[Clusterer Error] Clustering failed. Falling back to last 5 messages.");
-            List<String> fallback = new ArrayList<>();
+            return fallback(messages);
+        }
+    }
 
-            // 1. 最初のメッセージ
-            if (!messages.isEmpty()) {
-                fallback.add(messages.get(0));
-            }
+    private List<String> fallback(List<String> messages) {
+        List<String> fallback = new ArrayList<>();
 
-            // 2. 最後のメッセージ
-            if (messages.size() > 1) {
-                fallback.add(messages.get(messages.size() - 1));
-            }
+        // 1. 最初のメッセージ
+        if (!messages.isEmpty()) {
+            fallback.add(messages.get(0));
+        }
 
-            // 3. 最長メッセージ
-            String longest = messages.stream()
-                    .max(Comparator.comparingInt(String::length))
-                    .orElse(null);
-            if (longest != null && !fallback.contains(longest)) {
-                fallback.add(longest);
-            }
+        // 2. 最後のメッセージ
+        if (messages.size() > 1) {
+            fallback.add(messages.get(messages.size() - 1));
+        }
 
-            // 4. 最新3件
-            int n = Math.min(3, messages.size());
-            List<String> latest = messages.subList(messages.size() - n, messages.size());
-            for (String msg : latest) {
-                if (!fallback.contains(msg)) {
-                    fallback.add(msg);
-                }
-            }
+        // 3. 最長メッセージ
+        String longest = messages.stream()
+                .max(Comparator.comparingInt(String::length))
+                .orElse(null);
+        if (longest != null && !fallback.contains(longest)) {
+            fallback.add(longest);
+        }
 
-            return fallback;
+        // 4. 最新3件
+        int n = Math.min(3, messages.size());
+        List<String> latest = messages.subList(messages.size() - n, messages.size());
+        for (String msg : latest) {
+            if (!fallback.contains(msg)) {
+                fallback.add(msg);
+            }
         }
+
+        return fallback;
     }
 }
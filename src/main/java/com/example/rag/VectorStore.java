@@ -0,0 +1,21 @@
+package com.example.rag;
+
+import com.example.util.Chunk;
+
+import java.util.List;
+
+/**
+ * RagService が使う近傍検索の抽象。pgvector 版とプロセス内 HNSW 版がある。
+ */
+public interface VectorStore {
+
+    /**
+     * クエリベクトルに近い順に最大 k 件のチャンクを返す
+     */
+    List<Chunk> search(float[] query, int k);
+
+    /**
+     * FaqIngestor が faq_chunks に書き込んだ後に呼ぶ。インデックスを持つ実装はここで追加する。
+     */
+    void add(Chunk chunk, float[] embedding);
+}
@@ -0,0 +1,86 @@
+package com.example.repo;
+
+import org.springframework.jdbc.core.ConnectionCallback;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.sql.PreparedStatement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * コンテンツハッシュ（SHA-256(model + text)）をキーに Embedding を永続化するストア。
+ * FaqIngestor が再起動・再投入のたびに同じテキストを Embedding し直さないために使う。
+ */
+public class EmbeddingStore {
+    private final JdbcTemplate jdbcTemplate;
+
+    public EmbeddingStore(JdbcTemplate jdbcTemplate) {
+        this.jdbcTemplate = jdbcTemplate;
+    }
+
+    public void createTableIfNotExists() {
+        jdbcTemplate.execute("""
+        CREATE TABLE IF NOT EXISTS embedding_store (
+            content_hash CHAR(64) PRIMARY KEY,
+            model        TEXT NOT NULL,
+            embedding    vector NOT NULL,
+            created_at   TIMESTAMPTZ NOT NULL DEFAULT now()
+        )
+        """);
+    }
+
+    /**
+     * @return 保存済みの Embedding。なければ null
+     */
+    public float[] find(String contentHash) {
+        String sql = "SELECT embedding::text FROM embedding_store WHERE content_hash = ?";
+        List<String> rows = jdbcTemplate.queryForList(sql, String.class, contentHash);
+        return rows.isEmpty() ? null : VectorCodec.parse(rows.get(0));
+    }
+
+    /**
+     * まとめて引く。見つかったものだけを hash → Embedding で返す
+     */
+    public Map<String, float[]> findAll(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) return Collections.emptyMap();
+
+        String placeholders = String.join(",", Collections.nCopies(contentHashes.size(), "?"));
+        String sql = "SELECT content_hash, embedding::text AS embedding FROM embedding_store"
+                + " WHERE content_hash IN (" + placeholders + ")";
+
+        Map<String, float[]> result = new HashMap<>();
+        jdbcTemplate.query(sql, rs -> {
+            result.put(rs.getString("content_hash"), VectorCodec.parse(rs.getString("embedding")));
+        }, contentHashes.toArray());
+        return result;
+    }
+
+    public void save(String contentHash, String model, float[] embedding) {
+        saveAll(List.of(contentHash), model, List.of(embedding));
+    }
+
+    /**
+     * JDBC バッチでまとめて保存する（既存のハッシュは無視）
+     */
+    public void saveAll(List<String> contentHashes, String model, List<float[]> embeddings) {
+        String sql = """
+        INSERT INTO embedding_store (content_hash, model, embedding) VALUES (?, ?, ?::vector)
+        ON CONFLICT (content_hash) DO NOTHING
+        """;
+        jdbcTemplate.execute((ConnectionCallback<int[]>) con -> {
+            VectorCodec.enableBinary(con);
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < contentHashes.size(); i++) {
+                    ps.setString(1, contentHashes.get(i));
+                    ps.setString(2, model);
+                    ps.setObject(3, VectorCodec.toParameter(embeddings.get(i)));
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            }
+        });
+    }
+}
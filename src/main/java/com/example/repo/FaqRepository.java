@@ -1,49 +1,154 @@
 package com.example.repo;
 
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.core.RowMapper;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
 import com.example.util.Chunk;
+import com.example.util.ContentHash;
 
 public class FaqRepository {
+    private static final LatencyHistogram INSERT_LATENCY = MetricsRegistry.global().stage("repo.insert_all");
+    private static final LatencyHistogram EXISTING_LATENCY = MetricsRegistry.global().stage("repo.existing_hashes");
+    private static final LatencyHistogram SEARCH_LATENCY = MetricsRegistry.global().stage("repo.search");
     private final JdbcTemplate jdbcTemplate;
 
     public FaqRepository(JdbcTemplate jdbcTemplate) {
         this.jdbcTemplate = jdbcTemplate;
     }
 
-    public void insert(String docId, String section, String content, double[] embedding) {
-        // double[] を Postgres vector 型に渡すために文字列化
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < embedding.length; i++) {
-            sb.append(embedding[i]);
-            if (i < embedding.length - 1) sb.append(',');
-        }
-        sb.append(']');
-        String embeddingStr = sb.toString();
+    /**
+     * content_hash 列とユニークインデックスを用意し、ハッシュのない既存行があればバックフィルする（起動時に1回）。
+     * 途中で失敗しても中途半端な状態を残さないよう、1トランザクションで行う。
+     */
+    public void ensureSchema() {
+        jdbcTemplate.execute((ConnectionCallback<Void>) con -> {
+            boolean autoCommit = con.getAutoCommit();
+            con.setAutoCommit(false);
+            try (Statement st = con.createStatement()) {
+                st.execute("ALTER TABLE faq_chunks ADD COLUMN IF NOT EXISTS content_hash CHAR(64)");
+                boolean missing;
+                try (ResultSet rs = st.executeQuery(
+                        "SELECT EXISTS (SELECT 1 FROM faq_chunks WHERE content_hash IS NULL)")) {
+                    missing = rs.next() && rs.getBoolean(1);
+                }
+                if (missing) {
+                    // 過去の重複行は先に1件に寄せる（ハッシュ済みの行か、先に入った行を残す）。ハッシュは1行1回だけ計算する
+                    st.executeUpdate("""
+                    DELETE FROM faq_chunks f
+                    USING (
+                        SELECT ctid, row_number() OVER (
+                            PARTITION BY coalesce(content_hash, %s)
+                            ORDER BY content_hash NULLS LAST, ctid) AS rn
+                        FROM faq_chunks) d
+                    WHERE f.ctid = d.ctid AND d.rn > 1
+                    """.formatted(chunkHashSql("faq_chunks")));
+                    st.executeUpdate("UPDATE faq_chunks SET content_hash = " + chunkHashSql("faq_chunks")
+                            + " WHERE content_hash IS NULL");
+                }
+                st.execute("CREATE UNIQUE INDEX IF NOT EXISTS faq_chunks_content_hash_idx ON faq_chunks (content_hash)");
+                con.commit();
+            } catch (SQLException | RuntimeException e) {
+                con.rollback();
+                throw e;
+            } finally {
+                con.setAutoCommit(autoCommit);
+            }
+            return null;
+        });
+    }
+
+    // ContentHash.ofChunk と同じ式（NULL は空文字として連結する）
+    private static String chunkHashSql(String alias) {
+        return ("encode(sha256(convert_to(coalesce(%1$s.doc_id, '') || chr(31) || coalesce(%1$s.section, '')"
+                + " || chr(31) || coalesce(%1$s.content, ''), 'UTF8')), 'hex')").formatted(alias);
+    }
+
+    public void insert(String docId, String section, String content, float[] embedding) {
+        insertAll(List.of(new Chunk(docId, section, content)), List.of(embedding));
+    }
 
-        String sql = "INSERT INTO faq_chunks (doc_id, section, content, embedding) VALUES (?, ?, ?, ?::vector)";
-        jdbcTemplate.update(sql, docId, section, content, embeddingStr);
+    /**
+     * JDBC バッチでまとめて upsert する（chunks と embeddings は同じ順序）。
+     * content_hash が既にあれば何もしない。Embedding は VectorCodec でバイナリ送信する。
+     */
+    public void insertAll(List<Chunk> chunks, List<float[]> embeddings) {
+        String sql = """
+        INSERT INTO faq_chunks (doc_id, section, content, embedding, content_hash) VALUES (?, ?, ?, ?::vector, ?)
+        ON CONFLICT (content_hash) DO NOTHING
+        """;
+        long start = System.nanoTime();
+        jdbcTemplate.execute((ConnectionCallback<int[]>) con -> {
+            VectorCodec.enableBinary(con);
+            try (PreparedStatement ps = con.prepareStatement(sql)) {
+                for (int i = 0; i < chunks.size(); i++) {
+                    Chunk c = chunks.get(i);
+                    ps.setString(1, c.docId());
+                    ps.setString(2, c.section());
+                    ps.setString(3, c.content());
+                    ps.setObject(4, VectorCodec.toParameter(embeddings.get(i)));
+                    ps.setString(5, ContentHash.ofChunk(c.docId(), c.section(), c.content()));
+                    ps.addBatch();
+                }
+                return ps.executeBatch();
+            }
+        });
+        INSERT_LATENCY.since(start);
     }
 
     public boolean exists(String docId, String section, String content) {
-        String sql = "SELECT COUNT(*) FROM faq_chunks WHERE doc_id = ? AND section = ? AND content = ?";
-        Integer count = jdbcTemplate.queryForObject(sql, Integer.class, docId, section, content);
-        return count > 0;
-    }
-
-    public List<Chunk> search(double[] embedding, int limit) {
-        // embedding を文字列化して Postgres vector 型に渡す
-        StringBuilder sb = new StringBuilder();
-        sb.append('[');
-        for (int i = 0; i < embedding.length; i++) {
-            sb.append(embedding[i]);
-            if (i < embedding.length - 1) sb.append(',');
-        }
-        sb.append(']');
-        String embeddingStr = sb.toString();
+        String hash = ContentHash.ofChunk(docId, section, content);
+        return !existingHashes(List.of(hash)).isEmpty();
+    }
+
+    /**
+     * 渡したハッシュのうち faq_chunks に既にあるものを1クエリで返す
+     */
+    public Set<String> existingHashes(Collection<String> contentHashes) {
+        if (contentHashes.isEmpty()) return Collections.emptySet();
+
+        String placeholders = String.join(",", Collections.nCopies(contentHashes.size(), "?"));
+        String sql = "SELECT content_hash FROM faq_chunks WHERE content_hash IN (" + placeholders + ")";
+        long start = System.nanoTime();
+        Set<String> existing = new HashSet<>(jdbcTemplate.queryForList(sql, String.class, contentHashes.toArray()));
+        EXISTING_LATENCY.since(start);
+        return existing;
+    }
+
+    /**
+     * 全チャンクを Embedding 付きで1行ずつ渡す（インメモリ索引の構築用）
+     */
+    public void forEachWithEmbedding(BiConsumer<Chunk, float[]> consumer) {
+        String sql = "SELECT doc_id, section, content, embedding::text AS embedding FROM faq_chunks";
+        jdbcTemplate.query(sql, rs -> {
+            Chunk chunk = new Chunk(rs.getString("doc_id"), rs.getString("section"), rs.getString("content"));
+            consumer.accept(chunk, VectorCodec.parse(rs.getString("embedding")));
+        });
+    }
+
+    /**
+     * 全チャンクを1行ずつ渡す（Embedding は読まない。語彙索引の構築用）
+     */
+    public void forEachChunk(Consumer<Chunk> consumer) {
+        String sql = "SELECT doc_id, section, content FROM faq_chunks";
+        jdbcTemplate.query(sql, rs -> {
+            consumer.accept(new Chunk(rs.getString("doc_id"), rs.getString("section"), rs.getString("content")));
+        });
+    }
 
+    public List<Chunk> search(float[] embedding, int limit) {
         String sql = """
         SELECT doc_id, section, content
         FROM faq_chunks
@@ -58,6 +163,16 @@ public class FaqRepository {
                         rs.getString("content")
                 );
 
-        return jdbcTemplate.query(sql, mapper, embeddingStr, limit);
+        // embedding は VectorCodec でバイナリのまま Postgres vector 型に渡す
+        long start = System.nanoTime();
+        List<Chunk> result = jdbcTemplate.query(con -> {
+            VectorCodec.enableBinary(con);
+            PreparedStatement ps = con.prepareStatement(sql);
+            ps.setObject(1, VectorCodec.toParameter(embedding));
+            ps.setInt(2, limit);
+            return ps;
+        }, mapper);
+        SEARCH_LATENCY.since(start);
+        return result;
     }
 }
@@ -0,0 +1,120 @@
+package com.example.repo;
+
+import org.postgresql.core.BaseConnection;
+import org.postgresql.util.PGBinaryObject;
+import org.postgresql.util.PGobject;
+
+import java.nio.ByteBuffer;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * float[] と pgvector の vector 型との変換。
+ * 送信は pgvector のバイナリ表現（int16 次元数 + int16 未使用 + float4 × 次元数、ビッグエンディアン）で行い、
+ * 1536次元で約30KBになっていた10進文字列の組み立てと Postgres 側のパースを省く。
+ */
+public class VectorCodec {
+
+    private VectorCodec() {
+    }
+
+    /**
+     * この接続で vector 型をバイナリ送信するよう pgjdbc に登録する（接続ごとに1回で済むが、何度呼んでもよい）。
+     * pgjdbc 以外の接続では何もせず、{@link #toParameter} はテキスト表現にフォールバックする。
+     */
+    public static void enableBinary(Connection con) throws SQLException {
+        if (!con.isWrapperFor(BaseConnection.class)) return;
+        BaseConnection pg = con.unwrap(BaseConnection.class);
+        int oid = pg.getTypeInfo().getPGType("vector");
+        if (oid != 0 && !pg.binaryTransferSend(oid)) {
+            pg.getQueryExecutor().addBinarySendOid(oid);
+        }
+    }
+
+    /**
+     * PreparedStatement#setObject に渡すパラメータ。配列はコピーせずにそのまま参照する。
+     */
+    public static PGobject toParameter(float[] vector) {
+        return new PgVector(vector);
+    }
+
+    /**
+     * pgvector のテキスト表現 "[0.1,0.2,...]" を float[] に戻す（split/正規表現を使わない）
+     */
+    public static float[] parse(String text) {
+        int end = text.length() - 1;
+        int dim = 0;
+        if (end > 1) {
+            dim = 1;
+            for (int i = 1; i < end; i++) {
+                if (text.charAt(i) == ',') dim++;
+            }
+        }
+        float[] v = new float[dim];
+        int start = 1;
+        for (int i = 0; i < dim; i++) {
+            int comma = text.indexOf(',', start);
+            if (comma < 0 || comma > end) comma = end;
+            v[i] = Float.parseFloat(text.substring(start, comma));
+            start = comma + 1;
+        }
+        return v;
+    }
+
+    public static float[] toFloats(double[] v) {
+        float[] f = new float[v.length];
+        for (int i = 0; i < v.length; i++) {
+            f[i] = (float) v[i];
+        }
+        return f;
+    }
+
+    private static final class PgVector extends PGobject implements PGBinaryObject {
+        private float[] vector;
+
+        PgVector(float[] vector) {
+            this.type = "vector";
+            this.vector = vector;
+        }
+
+        @Override
+        public int lengthInBytes() {
+            return 4 + vector.length * 4;
+        }
+
+        @Override
+        public void toBytes(byte[] bytes, int offset) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes, offset, lengthInBytes());
+            buf.putShort((short) vector.length);
+            buf.putShort((short) 0);
+            for (float f : vector) {
+                buf.putFloat(f);
+            }
+        }
+
+        @Override
+        public void setByteValue(byte[] bytes, int offset) {
+            ByteBuffer buf = ByteBuffer.wrap(bytes, offset, bytes.length - offset);
+            int dim = buf.getShort();
+            buf.getShort();
+            float[] v = new float[dim];
+            for (int i = 0; i < dim; i++) {
+                v[i] = buf.getFloat();
+            }
+            this.vector = v;
+        }
+
+        // バイナリ送信が使えない場合のテキスト表現
+        @Override
+        public String getValue() {
+            StringBuilder sb = new StringBuilder(vector.length * 12 + 2);
+            sb.append('[');
+            for (int i = 0; i < vector.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append(vector[i]);
+            }
+            sb.append(']');
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package com.example.report;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * グラフに描く表データ。1列目を X 軸のラベル、数値の列をそれぞれ系列として持つ。
+ * CsvSummary.toChartData で集計結果から作る。
+ */
+public record ChartData(String labelColumn, List<String> labels, Map<String, double[]> series) {
+}
@@ -0,0 +1,251 @@
+package com.example.report;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * レポート用の折れ線 / 棒グラフを Java2D でメモリ上に描き、PNG のバイト列を返す。
+ * 旧 python/generate_graph.py（matplotlib, 8x4 インチ）と同じ見た目・サイズに寄せている。
+ * 描画は呼び出しごとに別の BufferedImage で行うので、同時に複数のレポートを作っても干渉しない。
+ */
+public class ChartRenderer {
+    public enum ChartType { LINE, BAR }
+
+    private static final int WIDTH = 800;
+    private static final int HEIGHT = 400;
+    private static final int LEFT = 70, RIGHT = 20, TOP = 40, BOTTOM = 55;
+    private static final int MAX_X_LABELS = 12;
+    // matplotlib の既定の配色（tab10）
+    private static final Color[] PALETTE = {
+            new Color(0x1f77b4), new Color(0xff7f0e), new Color(0x2ca02c), new Color(0xd62728), new Color(0x9467bd),
+            new Color(0x8c564b), new Color(0xe377c2), new Color(0x7f7f7f), new Color(0xbcbd22), new Color(0x17becf)};
+
+    /**
+     * hints（レポート種別や依頼文）に名前が含まれる列を描く（一致する列がなければ数値の列すべて）。
+     * 「棒 / bar / 比較 / 内訳」を含むヒントがあれば棒グラフ、それ以外は折れ線。
+     */
+    public byte[] render(ChartData data, List<String> hints) {
+        Map<String, double[]> series = selectSeries(data, hints);
+        ChartType type = chartType(hints);
+        return render(data, series, type, title(series, type));
+    }
+
+    public byte[] render(ChartData data, Map<String, double[]> series, ChartType type, String title) {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+            draw(g, data, series, type, title);
+        } finally {
+            g.dispose();
+        }
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+        try {
+            ImageIO.write(image, "png", out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return out.toByteArray();
+    }
+
+    private void draw(Graphics2D g, ChartData data, Map<String, double[]> series, ChartType type, String title) {
+        int n = data.labels().size();
+        int plotW = WIDTH - LEFT - RIGHT;
+        int plotH = HEIGHT - TOP - BOTTOM;
+
+        // Y 軸の範囲（棒グラフは 0 を含める）
+        double min = Double.POSITIVE_INFINITY, max = Double.NEGATIVE_INFINITY;
+        for (double[] values : series.values()) {
+            for (double v : values) {
+                min = Math.min(min, v);
+                max = Math.max(max, v);
+            }
+        }
+        if (series.isEmpty() || n == 0) {
+            min = 0;
+            max = 1;
+        }
+        if (type == ChartType.BAR) {
+            min = Math.min(0, min);
+            max = Math.max(0, max);
+        }
+        if (max == min) max = min + 1;
+        max += (max - min) * 0.05; // 最大値が枠に張り付かないように少し余白を取る
+        double step = niceStep((max - min) / 5);
+        double lo = Math.floor(min / step) * step;
+        double hi = Math.ceil(max / step) * step;
+
+        // グリッドと Y 目盛り
+        Font tickFont = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+        g.setFont(tickFont);
+        FontMetrics fm = g.getFontMetrics();
+        for (double v = lo; v <= hi + step / 2; v += step) {
+            int y = TOP + plotH - (int) Math.round((v - lo) / (hi - lo) * plotH);
+            g.setColor(new Color(0xDDDDDD));
+            g.setStroke(new BasicStroke(1f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f, new float[]{4f, 3f}, 0f));
+            g.drawLine(LEFT, y, LEFT + plotW, y);
+            g.setColor(Color.DARK_GRAY);
+            String label = formatTick(v, step);
+            g.drawString(label, LEFT - 6 - fm.stringWidth(label), y + fm.getAscent() / 2 - 1);
+        }
+
+        // X 目盛り（多いときは間引く）
+        int every = Math.max(1, (int) Math.ceil(n / (double) MAX_X_LABELS));
+        for (int i = 0; i < n; i++) {
+            int x = xOf(i, n, plotW, type);
+            if (i % every == 0) {
+                g.setColor(new Color(0xDDDDDD));
+                g.drawLine(x, TOP, x, TOP + plotH);
+                g.setColor(Color.DARK_GRAY);
+                String label = data.labels().get(i);
+                g.drawString(label, x - fm.stringWidth(label) / 2, TOP + plotH + fm.getAscent() + 4);
+            }
+        }
+
+        // 系列
+        int s = 0;
+        int count = series.size();
+        for (double[] values : series.values()) {
+            Color color = PALETTE[s % PALETTE.length];
+            g.setColor(color);
+            if (type == ChartType.BAR) {
+                double slot = plotW / (double) Math.max(1, n);
+                double barW = slot * 0.8 / count;
+                int zeroY = yOf(0, lo, hi, plotH);
+                for (int i = 0; i < values.length; i++) {
+                    double x = LEFT + slot * i + slot * 0.1 + barW * s;
+                    int y = yOf(values[i], lo, hi, plotH);
+                    g.fillRect((int) Math.round(x), Math.min(y, zeroY), (int) Math.max(1, Math.round(barW)), Math.abs(zeroY - y));
+                }
+            } else {
+                g.setStroke(new BasicStroke(2f, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+                Path2D path = new Path2D.Double();
+                for (int i = 0; i < values.length; i++) {
+                    int x = xOf(i, n, plotW, type);
+                    int y = yOf(values[i], lo, hi, plotH);
+                    if (i == 0) path.moveTo(x, y); else path.lineTo(x, y);
+                }
+                g.draw(path);
+                if (values.length <= 60) {
+                    for (int i = 0; i < values.length; i++) {
+                        g.fill(new Ellipse2D.Double(xOf(i, n, plotW, type) - 3.5, yOf(values[i], lo, hi, plotH) - 3.5, 7, 7));
+                    }
+                }
+            }
+            s++;
+        }
+
+        // 枠・タイトル・軸ラベル・凡例
+        g.setStroke(new BasicStroke(1f));
+        g.setColor(Color.BLACK);
+        g.drawRect(LEFT, TOP, plotW, plotH);
+
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 15));
+        fm = g.getFontMetrics();
+        g.drawString(title, LEFT + (plotW - fm.stringWidth(title)) / 2, TOP - 12);
+
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 12));
+        fm = g.getFontMetrics();
+        String xLabel = capitalize(data.labelColumn());
+        g.drawString(xLabel, LEFT + (plotW - fm.stringWidth(xLabel)) / 2, HEIGHT - 10);
+        String yLabel = count == 1 ? capitalize(series.keySet().iterator().next()) : "Value";
+        Graphics2D rotated = (Graphics2D) g.create();
+        rotated.rotate(-Math.PI / 2);
+        rotated.drawString(yLabel, -(TOP + (plotH + fm.stringWidth(yLabel)) / 2), 16);
+        rotated.dispose();
+
+        if (count > 1) {
+            g.setFont(tickFont);
+            fm = g.getFontMetrics();
+            int y = TOP + 8;
+            int i = 0;
+            for (String name : series.keySet()) {
+                g.setColor(PALETTE[i++ % PALETTE.length]);
+                g.fillRect(LEFT + 10, y + 2, 14, 8);
+                g.setColor(Color.DARK_GRAY);
+                g.drawString(name, LEFT + 30, y + fm.getAscent());
+                y += fm.getHeight() + 2;
+            }
+        }
+    }
+
+    private static int xOf(int i, int n, int plotW, ChartType type) {
+        if (type == ChartType.BAR) return LEFT + (int) Math.round(plotW / (double) Math.max(1, n) * (i + 0.5));
+        // 折れ線は両端に少し余白を取る（matplotlib の margins と同程度）
+        double pad = plotW * 0.05;
+        return LEFT + (int) Math.round(pad + (n <= 1 ? 0 : (plotW - 2 * pad) * i / (n - 1)));
+    }
+
+    private static int yOf(double v, double lo, double hi, int plotH) {
+        return TOP + plotH - (int) Math.round((v - lo) / (hi - lo) * plotH);
+    }
+
+    // 1, 2, 5 × 10^k の目盛り間隔
+    static double niceStep(double raw) {
+        if (raw <= 0 || Double.isNaN(raw)) return 1;
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double f = raw / magnitude;
+        double nice = f <= 1 ? 1 : f <= 2 ? 2 : f <= 5 ? 5 : 10;
+        return nice * magnitude;
+    }
+
+    private static String formatTick(double v, double step) {
+        if (step >= 1) return String.format(Locale.ROOT, "%,.0f", v);
+        int decimals = (int) Math.ceil(-Math.log10(step));
+        return String.format(Locale.ROOT, "%." + decimals + "f", v);
+    }
+
+    private static Map<String, double[]> selectSeries(ChartData data, List<String> hints) {
+        Map<String, double[]> selected = new LinkedHashMap<>();
+        if (hints != null) {
+            for (String hint : hints) {
+                String wanted = hint.toLowerCase(Locale.ROOT);
+                data.series().forEach((name, values) -> {
+                    String column = name.toLowerCase(Locale.ROOT);
+                    if (wanted.contains(column) || column.contains(wanted)) selected.put(name, values);
+                });
+            }
+        }
+        return selected.isEmpty() ? data.series() : selected;
+    }
+
+    private static ChartType chartType(List<String> hints) {
+        if (hints == null) return ChartType.LINE;
+        for (String hint : hints) {
+            String s = hint.toLowerCase(Locale.ROOT);
+            if (s.contains("bar") || s.contains("棒") || s.contains("比較") || s.contains("内訳")) return ChartType.BAR;
+        }
+        return ChartType.LINE;
+    }
+
+    private static String title(Map<String, double[]> series, ChartType type) {
+        List<String> names = new ArrayList<>();
+        series.keySet().forEach(name -> names.add(capitalize(name)));
+        if (names.isEmpty()) return "Report";
+        return String.join(" / ", names) + (type == ChartType.LINE ? " Trend" : "");
+    }
+
+    private static String capitalize(String s) {
+        return s == null || s.isEmpty() ? "" : Character.toUpperCase(s.charAt(0)) + s.substring(1);
+    }
+}
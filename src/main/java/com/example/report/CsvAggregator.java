@@ -0,0 +1,617 @@
+package com.example.report;
+
+import com.example.report.ReportPeriod.Granularity;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * CSV をメモリマップして1パスで集計する。
+ * ファイル全体を String にせず、マップした領域のバイト列から直接フィールドを切り出して数値・日付を読む。
+ * 集計は列ごとの統計（Welford）と、日付列があれば日ごと・なければ1列目の値ごとの合計だけを持つので、
+ * メモリは行数ではなく列数・日数・区切りの数で決まる。
+ *
+ * 日付列があるときは期間で絞り込み、期間の長さに合った粒度（日 / 週 / 月 / 四半期）にまとめてから
+ * maxPoints 点を超える分は LTTB（Largest-Triangle-Three-Buckets）で形を残して間引く。
+ * 日付列がないときは値ごとにまとめ、maxPoints を超えたら合計の大きい順に残して残りを (other) にする。
+ */
+public class CsvAggregator {
+    // 1回にマップする大きさ（MappedByteBuffer は int で添字を取るので 2GB 未満）
+    private static final int REGION_BYTES = 128 << 20;
+    // プロンプトの大きさを抑えるための上限
+    private static final int MAX_SERIES_COLUMNS = 8;
+    private static final int MAX_DISTINCT = 1000;
+    // 列の種類を決めるために見る先頭のデータ行数
+    private static final int CLASSIFY_ROWS = 100;
+    // 値なしとして扱う表記（列の種類の判定では空欄と同じに数えない）
+    private static final Set<String> BLANK_TOKENS = Set.of("na", "n/a", "#n/a", "null", "none", "nan", "-");
+    private static final String OTHER = "(other)";
+    private static final double[] POW10 = new double[19];
+
+    static {
+        POW10[0] = 1;
+        for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i - 1] * 10;
+    }
+
+    private final int maxPoints;
+    private final int maxGroups;
+
+    public CsvAggregator(int maxPoints, int maxGroups) {
+        if (maxPoints < 3) throw new IllegalArgumentException("maxPoints must be >= 3");
+        this.maxPoints = maxPoints;
+        this.maxGroups = Math.max(maxPoints, maxGroups);
+    }
+
+    public CsvSummary aggregate(Path csv, ReportPeriod period) throws IOException {
+        try (FileChannel channel = FileChannel.open(csv, StandardOpenOption.READ)) {
+            long size = channel.size();
+            Pass pass = new Pass(period);
+            long position = 0;
+            while (position < size) {
+                int length = (int) Math.min(REGION_BYTES, size - position);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                boolean last = position + length == size;
+                int consumed = pass.parse(buffer, position == 0 ? bomLength(buffer) : 0, length, last);
+                if (consumed == 0 && !last) {
+                    throw new IOException("CSV record longer than " + REGION_BYTES + " bytes at offset " + position);
+                }
+                // 途中で切れたレコードは次の領域の先頭から読み直す
+                position += consumed;
+                if (last) break;
+            }
+            return pass.summary(csv.getFileName().toString(), size);
+        }
+    }
+
+    private static int bomLength(MappedByteBuffer b) {
+        return b.limit() >= 3 && (b.get(0) & 0xFF) == 0xEF && (b.get(1) & 0xFF) == 0xBB && (b.get(2) & 0xFF) == 0xBF ? 3 : 0;
+    }
+
+    /**
+     * 1ファイル分の集計状態
+     */
+    private final class Pass {
+        private final ReportPeriod period;
+
+        // 直近のレコードのフィールド位置（マップ領域内のオフセット）
+        private int[] starts = new int[16];
+        private int[] ends = new int[16];
+        private boolean[] quoted = new boolean[16];
+        private int fieldCount;
+
+        private String[] header;
+        private int dateColumn = -1;
+        private int labelColumn;
+        private boolean[] numeric;
+        private int[] seriesColumns;
+
+        private long rows;
+        private long rowsInPeriod;
+        private long badDates;
+        private long[] count, missing;
+        private double[] sum, min, max, mean, m2;
+        private List<Set<Long>> distinct;
+
+        // 日付列あり: epochDay → 系列列ごとの合計。なし: ラベル → 合計（出現順）
+        private final TreeMap<Long, double[]> byDay = new TreeMap<>();
+        private final LinkedHashMap<String, double[]> byLabel = new LinkedHashMap<>();
+        private boolean groupsCapped;
+
+        private int lastYear, lastMonth, lastDay;
+        private long lastEpochDay = Long.MIN_VALUE;
+
+        Pass(ReportPeriod period) {
+            this.period = period;
+        }
+
+        /**
+         * [from, limit) の完全なレコードをすべて処理し、処理したバイト数を返す
+         */
+        int parse(MappedByteBuffer b, int from, int limit, boolean last) {
+            int pos = from;
+            while (pos < limit) {
+                int next = record(b, pos, limit, last);
+                if (next < 0) break;
+                if (fieldCount > 1 || ends[0] > starts[0]) {
+                    if (header == null) {
+                        readHeader(b);
+                    } else {
+                        if (numeric == null) {
+                            classify(b, pos, limit, last);
+                            record(b, pos, limit, last); // 先読みで上書きしたフィールド位置を戻す
+                        }
+                        row(b);
+                    }
+                }
+                pos = next;
+            }
+            return pos;
+        }
+
+        /**
+         * pos から1レコード分のフィールド位置を読む。次のレコードの先頭を返す（領域内で終わらなければ -1）
+         */
+        private int record(MappedByteBuffer b, int pos, int limit, boolean last) {
+            fieldCount = 0;
+            while (true) {
+                if (fieldCount == starts.length) grow();
+                boolean q = pos < limit && b.get(pos) == '"';
+                int start = q ? pos + 1 : pos;
+                int i = start;
+                if (q) {
+                    while (true) {
+                        if (i >= limit) return last ? endRecord(start, limit, true, limit) : -1;
+                        if (b.get(i) == '"') {
+                            if (i + 1 < limit && b.get(i + 1) == '"') {
+                                i += 2;
+                                continue;
+                            }
+                            if (i + 1 >= limit && !last) return -1;
+                            break;
+                        }
+                        i++;
+                    }
+                    starts[fieldCount] = start;
+                    ends[fieldCount] = i;
+                    quoted[fieldCount++] = true;
+                    i++; // 閉じ引用符
+                    while (i < limit && b.get(i) != ',' && b.get(i) != '\n') i++;
+                } else {
+                    while (i < limit && b.get(i) != ',' && b.get(i) != '\n') i++;
+                    int end = i > start && b.get(i - 1) == '\r' ? i - 1 : i; // CRLF
+                    starts[fieldCount] = start;
+                    ends[fieldCount] = end;
+                    quoted[fieldCount++] = false;
+                }
+                if (i >= limit) return last ? limit : -1;
+                if (b.get(i) == '\n') return i + 1;
+                pos = i + 1; // ','
+            }
+        }
+
+        private int endRecord(int start, int end, boolean q, int next) {
+            starts[fieldCount] = start;
+            ends[fieldCount] = end;
+            quoted[fieldCount++] = q;
+            return next;
+        }
+
+        private void grow() {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+            ends = Arrays.copyOf(ends, ends.length * 2);
+            quoted = Arrays.copyOf(quoted, quoted.length * 2);
+        }
+
+        private void readHeader(MappedByteBuffer b) {
+            header = new String[fieldCount];
+            for (int c = 0; c < fieldCount; c++) header[c] = text(b, c).strip();
+        }
+
+        /**
+         * from から最大 CLASSIFY_ROWS 行を先読みして列の種類（日付 / 数値 / 文字列）を決める。
+         * 空欄や "N/A" などは数えず、値のある行がすべて日付（数値）と読めて1件以上ある列を日付（数値）列にする。
+         */
+        private void classify(MappedByteBuffer b, int from, int limit, boolean last) {
+            int n = header.length;
+            int[] values = new int[n], dates = new int[n], numbers = new int[n];
+            int pos = from;
+            for (int r = 0; r < CLASSIFY_ROWS && pos < limit; r++) {
+                int next = record(b, pos, limit, last);
+                if (next < 0) break;
+                for (int c = 0; c < n && c < fieldCount; c++) {
+                    if (blank(b, c)) continue;
+                    values[c]++;
+                    if (epochDay(b, c) != Long.MIN_VALUE) dates[c]++;
+                    if (!Double.isNaN(number(b, c))) numbers[c]++;
+                }
+                pos = next;
+            }
+            numeric = new boolean[n];
+            for (int c = 0; c < n; c++) {
+                if (values[c] == 0) continue;
+                if (dateColumn < 0 && dates[c] == values[c]) {
+                    dateColumn = c;
+                } else {
+                    numeric[c] = numbers[c] == values[c];
+                }
+            }
+            labelColumn = dateColumn;
+            for (int c = 0; labelColumn < 0 && c < n; c++) {
+                if (!numeric[c]) labelColumn = c;
+            }
+            if (labelColumn < 0) labelColumn = 0;
+            numeric[labelColumn] = false;
+
+            List<Integer> selected = new ArrayList<>();
+            for (int c = 0; c < n && selected.size() < MAX_SERIES_COLUMNS; c++) {
+                if (numeric[c]) selected.add(c);
+            }
+            seriesColumns = selected.stream().mapToInt(Integer::intValue).toArray();
+
+            count = new long[n];
+            missing = new long[n];
+            sum = new double[n];
+            min = new double[n];
+            max = new double[n];
+            mean = new double[n];
+            m2 = new double[n];
+            Arrays.fill(min, Double.POSITIVE_INFINITY);
+            Arrays.fill(max, Double.NEGATIVE_INFINITY);
+            distinct = new ArrayList<>();
+            for (int c = 0; c < n; c++) distinct.add(new HashSet<>());
+        }
+
+        private void row(MappedByteBuffer b) {
+            rows++;
+
+            long day = Long.MIN_VALUE;
+            if (dateColumn >= 0) {
+                day = dateColumn < fieldCount ? epochDay(b, dateColumn) : Long.MIN_VALUE;
+                if (day == Long.MIN_VALUE) {
+                    badDates++;
+                    return;
+                }
+                if (period.bounded() && !period.contains(LocalDate.ofEpochDay(day))) return;
+            }
+            rowsInPeriod++;
+
+            for (int c = 0; c < header.length; c++) {
+                if (numeric[c]) {
+                    double v = c < fieldCount ? number(b, c) : Double.NaN;
+                    if (Double.isNaN(v)) {
+                        missing[c]++;
+                        continue;
+                    }
+                    // Welford の逐次平均・分散
+                    long k = ++count[c];
+                    double delta = v - mean[c];
+                    mean[c] += delta / k;
+                    m2[c] += delta * (v - mean[c]);
+                    sum[c] += v;
+                    if (v < min[c]) min[c] = v;
+                    if (v > max[c]) max[c] = v;
+                } else if (c != dateColumn) {
+                    if (c >= fieldCount || ends[c] == starts[c]) {
+                        missing[c]++;
+                        continue;
+                    }
+                    count[c]++;
+                    Set<Long> seen = distinct.get(c);
+                    if (seen.size() <= MAX_DISTINCT) seen.add(hash(b, c));
+                }
+            }
+
+            double[] totals;
+            if (dateColumn >= 0) {
+                totals = byDay.computeIfAbsent(day, d -> new double[seriesColumns.length]);
+            } else {
+                String label = labelColumn < fieldCount ? text(b, labelColumn).strip() : "";
+                totals = byLabel.get(label);
+                if (totals == null) {
+                    if (byLabel.size() >= maxGroups) {
+                        groupsCapped = true;
+                        label = OTHER;
+                        totals = byLabel.get(OTHER);
+                    }
+                    if (totals == null) {
+                        totals = new double[seriesColumns.length];
+                        byLabel.put(label, totals);
+                    }
+                }
+            }
+            for (int s = 0; s < seriesColumns.length; s++) {
+                int c = seriesColumns[s];
+                double v = c < fieldCount ? number(b, c) : Double.NaN;
+                if (!Double.isNaN(v)) totals[s] += v;
+            }
+        }
+
+        CsvSummary summary(String fileName, long bytes) {
+            if (header == null) header = new String[0];
+            if (numeric == null) {
+                numeric = new boolean[header.length];
+                seriesColumns = new int[0];
+                count = new long[header.length];
+                missing = new long[header.length];
+            }
+
+            List<CsvSummary.ColumnStats> columns = new ArrayList<>();
+            for (int c = 0; c < header.length; c++) {
+                if (c == dateColumn) continue;
+                if (numeric[c]) {
+                    boolean any = count[c] > 0;
+                    columns.add(new CsvSummary.ColumnStats(header[c], true, count[c], missing[c], sum[c],
+                            any ? min[c] : Double.NaN, any ? max[c] : Double.NaN, any ? mean[c] : Double.NaN,
+                            count[c] > 1 ? Math.sqrt(m2[c] / (count[c] - 1)) : Double.NaN, 0, false));
+                } else {
+                    int seen = distinct == null ? 0 : distinct.get(c).size();
+                    columns.add(new CsvSummary.ColumnStats(header[c], false, count[c], missing[c], 0,
+                            Double.NaN, Double.NaN, Double.NaN, Double.NaN,
+                            Math.min(seen, MAX_DISTINCT), seen > MAX_DISTINCT));
+                }
+            }
+
+            List<String> notes = new ArrayList<>();
+            List<String> labels = new ArrayList<>();
+            List<double[]> points = new ArrayList<>();
+            String groupedBy;
+            if (dateColumn >= 0) {
+                Granularity granularity = period.bounded() || byDay.isEmpty()
+                        ? (period.granularity() != null ? period.granularity() : Granularity.DAY)
+                        : Granularity.forSpan(byDay.lastKey() - byDay.firstKey() + 1);
+                groupedBy = granularity.name().toLowerCase();
+                TreeMap<LocalDate, double[]> buckets = new TreeMap<>();
+                byDay.forEach((day, totals) -> {
+                    double[] bucket = buckets.computeIfAbsent(granularity.floor(LocalDate.ofEpochDay(day)),
+                            d -> new double[totals.length]);
+                    for (int s = 0; s < totals.length; s++) bucket[s] += totals[s];
+                });
+                buckets.forEach((bucket, totals) -> {
+                    labels.add(granularity.label(bucket));
+                    points.add(totals);
+                });
+                if (badDates > 0) notes.add(badDates + " rows skipped: unreadable date in column " + header[dateColumn]);
+                if (labels.size() > maxPoints) {
+                    int[] keep = lttb(points, maxPoints);
+                    notes.add("series downsampled from " + labels.size() + " to " + keep.length + " points (LTTB)");
+                    List<String> keptLabels = new ArrayList<>();
+                    List<double[]> keptPoints = new ArrayList<>();
+                    for (int i : keep) {
+                        keptLabels.add(labels.get(i));
+                        keptPoints.add(points.get(i));
+                    }
+                    labels.clear();
+                    labels.addAll(keptLabels);
+                    points.clear();
+                    points.addAll(keptPoints);
+                }
+            } else {
+                groupedBy = header.length > 0 ? header[labelColumn] : "row";
+                if (period.bounded()) notes.add("no date column: period filter not applied");
+                if (groupsCapped) notes.add("more than " + maxGroups + " distinct values: the rest are summed into " + OTHER);
+                byLabel.forEach((label, totals) -> {
+                    labels.add(label);
+                    points.add(totals);
+                });
+                if (labels.size() > maxPoints) topGroups(labels, points, notes);
+            }
+
+            Map<String, double[]> series = new LinkedHashMap<>();
+            for (int s = 0; s < seriesColumns.length; s++) {
+                double[] values = new double[points.size()];
+                for (int i = 0; i < points.size(); i++) values[i] = points.get(i)[s];
+                series.put(header[seriesColumns[s]], values);
+            }
+            String labelName = header.length > 0 ? header[dateColumn >= 0 ? dateColumn : labelColumn] : "";
+            return new CsvSummary(fileName, bytes, rows, rowsInPeriod, period, columns,
+                    labelName, groupedBy, labels, series, notes);
+        }
+
+        // 最初の系列の合計が大きい順に maxPoints - 1 件を出現順のまま残し、残りは (other) にまとめる
+        private void topGroups(List<String> labels, List<double[]> points, List<String> notes) {
+            Integer[] order = new Integer[labels.size()];
+            for (int i = 0; i < order.length; i++) order[i] = i;
+            Arrays.sort(order, (x, y) -> Double.compare(first(points.get(y)), first(points.get(x))));
+            boolean[] kept = new boolean[order.length];
+            for (int i = 0; i < maxPoints - 1; i++) kept[order[i]] = true;
+
+            List<String> keptLabels = new ArrayList<>();
+            List<double[]> keptPoints = new ArrayList<>();
+            double[] other = new double[seriesColumns.length];
+            for (int i = 0; i < labels.size(); i++) {
+                if (kept[i] && !OTHER.equals(labels.get(i))) {
+                    keptLabels.add(labels.get(i));
+                    keptPoints.add(points.get(i));
+                } else {
+                    for (int s = 0; s < other.length; s++) other[s] += points.get(i)[s];
+                }
+            }
+            notes.add("kept top " + keptLabels.size() + " of " + labels.size() + " values; the rest are summed into " + OTHER);
+            keptLabels.add(OTHER);
+            keptPoints.add(other);
+            labels.clear();
+            labels.addAll(keptLabels);
+            points.clear();
+            points.addAll(keptPoints);
+        }
+
+        private double first(double[] totals) {
+            return totals.length == 0 ? 0 : totals[0];
+        }
+
+        // ---- フィールドの読み取り ----
+
+        private String text(MappedByteBuffer b, int c) {
+            byte[] bytes = new byte[ends[c] - starts[c]];
+            b.get(starts[c], bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8);
+            return quoted[c] ? s.replace("\"\"", "\"") : s;
+        }
+
+        // FNV-1a（distinct を文字列を作らずに数える）
+        private boolean blank(MappedByteBuffer b, int c) {
+            if (ends[c] - starts[c] > 8) return false;
+            String value = text(b, c).strip();
+            return value.isEmpty() || BLANK_TOKENS.contains(value.toLowerCase());
+        }
+
+        private long hash(MappedByteBuffer b, int c) {
+            long h = 0xcbf29ce484222325L;
+            for (int i = starts[c]; i < ends[c]; i++) {
+                h ^= b.get(i) & 0xFF;
+                h *= 0x100000001b3L;
+            }
+            return h;
+        }
+
+        /**
+         * 数値として読めなければ NaN。よくある形（符号・整数部・小数部）はバイト列から直接読む
+         */
+        private double number(MappedByteBuffer b, int c) {
+            int i = starts[c], end = ends[c];
+            while (i < end && b.get(i) == ' ') i++;
+            while (end > i && b.get(end - 1) == ' ') end--;
+            if (i == end) return Double.NaN;
+
+            int start = i;
+            boolean negative = false;
+            byte ch = b.get(i);
+            if (ch == '-' || ch == '+') {
+                negative = ch == '-';
+                i++;
+            }
+            long mantissa = 0;
+            int digits = 0;
+            int fraction = -1;
+            for (; i < end; i++) {
+                ch = b.get(i);
+                if (ch >= '0' && ch <= '9') {
+                    if (digits < 18) {
+                        mantissa = mantissa * 10 + (ch - '0');
+                        digits++;
+                        if (fraction >= 0) fraction++;
+                    } else if (fraction < 0) {
+                        return slowNumber(b, start, end);
+                    }
+                } else if (ch == '.' && fraction < 0) {
+                    fraction = 0;
+                } else {
+                    return slowNumber(b, start, end);
+                }
+            }
+            if (digits == 0) return Double.NaN;
+            double v = fraction > 0 ? mantissa / POW10[fraction] : mantissa;
+            return negative ? -v : v;
+        }
+
+        // 指数表記・桁区切り・通貨記号つきなど
+        private double slowNumber(MappedByteBuffer b, int start, int end) {
+            byte[] bytes = new byte[end - start];
+            b.get(start, bytes);
+            String s = new String(bytes, StandardCharsets.UTF_8).replaceAll("[,¥$€%\\s]", "");
+            if (s.isEmpty() || !Character.isDigit(s.charAt(s.length() - 1))) return Double.NaN;
+            try {
+                return Double.parseDouble(s);
+            } catch (NumberFormatException e) {
+                return Double.NaN;
+            }
+        }
+
+        /**
+         * yyyy-MM-dd / yyyy/MM/dd / yyyy-MM / yyyyMMdd（後ろに時刻が続いてもよい）を epochDay にする。
+         * 読めなければ Long.MIN_VALUE
+         */
+        private long epochDay(MappedByteBuffer b, int c) {
+            int i = starts[c], end = ends[c];
+            while (i < end && b.get(i) == ' ') i++;
+            int year = 0, month = 0, day = 1;
+            int n = 0;
+            for (; n < 4 && i < end && isDigit(b.get(i)); n++, i++) year = year * 10 + (b.get(i) - '0');
+            if (n != 4 || i >= end) return Long.MIN_VALUE;
+
+            byte sep = b.get(i);
+            if (sep == '-' || sep == '/' || sep == '.') {
+                i++;
+                n = 0;
+                for (; n < 2 && i < end && isDigit(b.get(i)); n++, i++) month = month * 10 + (b.get(i) - '0');
+                if (n == 0) return Long.MIN_VALUE;
+                if (i < end && b.get(i) == sep) {
+                    i++;
+                    day = 0;
+                    n = 0;
+                    for (; n < 2 && i < end && isDigit(b.get(i)); n++, i++) day = day * 10 + (b.get(i) - '0');
+                    if (n == 0) return Long.MIN_VALUE;
+                }
+            } else if (isDigit(sep) && end - i >= 4) {
+                month = (b.get(i) - '0') * 10 + (b.get(i + 1) - '0');
+                if (!isDigit(b.get(i + 1)) || !isDigit(b.get(i + 2)) || !isDigit(b.get(i + 3))) return Long.MIN_VALUE;
+                day = (b.get(i + 2) - '0') * 10 + (b.get(i + 3) - '0');
+                i += 4;
+            } else {
+                return Long.MIN_VALUE;
+            }
+            // 日付の後ろは時刻（T / 空白）以外なら日付ではない
+            if (i < end && b.get(i) != 'T' && b.get(i) != ' ') return Long.MIN_VALUE;
+            if (month < 1 || month > 12 || day < 1 || day > 31) return Long.MIN_VALUE;
+
+            // 同じ日付が続くことが多いので直前の結果を使い回す
+            if (year == lastYear && month == lastMonth && day == lastDay) return lastEpochDay;
+            try {
+                long epochDay = LocalDate.of(year, month, day).toEpochDay();
+                lastYear = year;
+                lastMonth = month;
+                lastDay = day;
+                lastEpochDay = epochDay;
+                return epochDay;
+            } catch (java.time.DateTimeException e) {
+                return Long.MIN_VALUE;
+            }
+        }
+    }
+
+    private static boolean isDigit(byte b) {
+        return b >= '0' && b <= '9';
+    }
+
+    /**
+     * LTTB: 先頭と末尾を残し、間のバケットごとに隣の点と作る三角形が最大の点を選ぶ（最初の系列で判定する）
+     */
+    static int[] lttb(List<double[]> points, int threshold) {
+        int n = points.size();
+        if (threshold >= n || threshold < 3) {
+            int[] all = new int[n];
+            for (int i = 0; i < n; i++) all[i] = i;
+            return all;
+        }
+        int[] keep = new int[threshold];
+        double every = (double) (n - 2) / (threshold - 2);
+        int a = 0;
+        keep[0] = 0;
+        for (int k = 0; k < threshold - 2; k++) {
+            int nextStart = (int) Math.floor((k + 1) * every) + 1;
+            int nextEnd = Math.min(n, (int) Math.floor((k + 2) * every) + 1);
+            double avgX = 0, avgY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                avgX += j;
+                avgY += y(points.get(j));
+            }
+            int span = Math.max(1, nextEnd - nextStart);
+            avgX /= span;
+            avgY /= span;
+
+            int rangeStart = (int) Math.floor(k * every) + 1;
+            int rangeEnd = (int) Math.floor((k + 1) * every) + 1;
+            double ay = y(points.get(a));
+            double maxArea = -1;
+            int chosen = rangeStart;
+            for (int j = rangeStart; j < rangeEnd; j++) {
+                double area = Math.abs((a - avgX) * (y(points.get(j)) - ay) - (a - j) * (avgY - ay));
+                if (area > maxArea) {
+                    maxArea = area;
+                    chosen = j;
+                }
+            }
+            keep[k + 1] = chosen;
+            a = chosen;
+        }
+        keep[threshold - 1] = n - 1;
+        return keep;
+    }
+
+    private static double y(double[] totals) {
+        return totals.length == 0 ? 0 : totals[0];
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.report;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * {@link CsvAggregator} が1パスで作る CSV の要約。モデルに渡すのはこの要約だけ（生データは渡さない）。
+ *
+ * @param labelColumn  系列の X 軸にした列（日付列、なければ最初の文字列の列）
+ * @param groupedBy    系列の区切り（"day" / "month" / "category" など）
+ * @param labels       系列の各点のラベル（間引き後）
+ * @param series       数値の列ごとの、区切りごとの合計（間引き後）
+ * @param notes        間引きや読み飛ばしの注記
+ */
+public record CsvSummary(String fileName, long bytes, long rows, long rowsInPeriod, ReportPeriod period,
+                         List<ColumnStats> columns, String labelColumn, String groupedBy,
+                         List<String> labels, Map<String, double[]> series, List<String> notes) {
+
+    /**
+     * 列ごとの統計。数値の列は count / missing / sum / min / max / mean / std、文字列の列は distinct を持つ
+     */
+    public record ColumnStats(String name, boolean numeric, long count, long missing, double sum,
+                              double min, double max, double mean, double std, long distinct, boolean distinctCapped) {
+    }
+
+    /**
+     * モデルに渡すテキスト。行数に関係なく、列数と系列の点数で大きさが決まる
+     */
+    public String toPromptText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("file: ").append(fileName).append(" (").append(bytes).append(" bytes)\n");
+        sb.append("rows: ").append(rows).append(", rows in period: ").append(rowsInPeriod).append('\n');
+        sb.append("period: ").append(period).append('\n');
+        sb.append("columns:\n");
+        for (ColumnStats c : columns) {
+            if (c.numeric()) {
+                sb.append(String.format(Locale.ROOT, "- %s (numeric): count=%d missing=%d sum=%s mean=%s min=%s max=%s std=%s%n",
+                        c.name(), c.count(), c.missing(), num(c.sum()), num(c.mean()), num(c.min()), num(c.max()), num(c.std())));
+            } else {
+                sb.append("- ").append(c.name()).append(" (text): distinct=").append(c.distinct())
+                        .append(c.distinctCapped() ? "+" : "").append('\n');
+            }
+        }
+        sb.append("series (sum per ").append(groupedBy).append(", ").append(labels.size()).append(" points):\n");
+        sb.append(labelColumn);
+        for (String name : series.keySet()) sb.append(',').append(name);
+        sb.append('\n');
+        for (int i = 0; i < labels.size(); i++) {
+            sb.append(labels.get(i));
+            for (double[] values : series.values()) sb.append(',').append(num(values[i]));
+            sb.append('\n');
+        }
+        for (String note : notes) sb.append("note: ").append(note).append('\n');
+        return sb.toString();
+    }
+
+    /**
+     * 系列をそのままグラフ用のデータにする
+     */
+    public ChartData toChartData() {
+        return new ChartData(labelColumn, labels, new LinkedHashMap<>(series));
+    }
+
+    private static String num(double v) {
+        if (Double.isNaN(v)) return "-";
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return String.valueOf((long) v);
+        return String.format(Locale.ROOT, "%.4g", v);
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.report;
+
+import com.example.metrics.MetricsRegistry;
+import com.example.service.ReportResult;
+import com.example.util.ContentHash;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+/**
+ * 作成済みレポート（ReportResult とグラフの PNG）のキャッシュ。
+ * キーは (レポート種別, 期間の実際の範囲, CSV のパス・サイズ・更新時刻)。期間は日付に直してからキーにするので、
+ * "this month" は月が替われば別のキーになる。CSV が書き換わればサイズか更新時刻が変わるので、
+ * 次に参照したときにそのファイルの古いエントリをまとめて捨てる。
+ *
+ * メモリは件数とバイト数の両方で上限を持つ LRU。ディレクトリを設定すると、メモリから落ちたものも
+ * ディスクから読み戻せる（再起動後も有効）。ディスクも合計バイト数で上限を持ち、古いものから消す。
+ */
+public class ReportCache {
+    private static final Logger log = LoggerFactory.getLogger(ReportCache.class);
+    private static final ObjectMapper mapper = new ObjectMapper();
+
+    /**
+     * @param csv         CSV の絶対パス
+     * @param fingerprint CSV のサイズと更新時刻
+     * @param period      期間の範囲（範囲がなければ "all"）
+     */
+    public record Key(String reportType, String period, String csv, String fingerprint) {
+        String id() {
+            return ContentHash.ofReport(reportType, period, csv, fingerprint);
+        }
+    }
+
+    public record Entry(ReportResult result, byte[] chart) {
+        long bytes() {
+            String summary = result.getSummary();
+            return chart.length + (summary == null ? 0 : summary.length() * 2L) + 512;
+        }
+    }
+
+    // ディスクに置くメタデータ（PNG は別ファイル）
+    private record Stored(Key key, ReportResult result) {
+    }
+
+    private final int maxEntries;
+    private final long maxMemoryBytes;
+    private Path directory;
+    private long maxDiskBytes = 256L << 20;
+
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+    // CSV ごとの直近の fingerprint（変わったら古いエントリを捨てる）
+    private final Map<String, String> fingerprints = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    public ReportCache(int maxEntries, long maxMemoryBytes) {
+        if (maxEntries <= 0 || maxMemoryBytes <= 0) throw new IllegalArgumentException("limits must be > 0");
+        this.maxEntries = maxEntries;
+        this.maxMemoryBytes = maxMemoryBytes;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.counter("cache_hits_total", "Cache hits", hits::get, "cache", "report");
+        metrics.counter("cache_misses_total", "Cache misses", misses::get, "cache", "report");
+        metrics.gauge("cache_entries", "Current number of cache entries", this::size, "cache", "report");
+    }
+
+    // ディスクに置くディレクトリ（空ならメモリのみ）
+    public void setDirectory(String directory) {
+        this.directory = directory == null || directory.isBlank() ? null : Path.of(directory);
+    }
+
+    public void setMaxDiskBytes(long maxDiskBytes) {
+        this.maxDiskBytes = maxDiskBytes;
+    }
+
+    /**
+     * CSV の現在のサイズと更新時刻からキーを作る（ファイルの中身は読まない）
+     */
+    public Key key(String reportType, ReportPeriod period, Path csv) throws IOException {
+        Path file = csv.toAbsolutePath().normalize();
+        String fingerprint = Files.size(file) + ":" + Files.getLastModifiedTime(file).toMillis();
+        String range = period.bounded() ? period.start() + ".." + period.end() : "all";
+        String type = reportType == null ? "" : reportType.strip().toLowerCase(Locale.ROOT);
+        Key key = new Key(type, range, file.toString(), fingerprint);
+        invalidateIfChanged(key);
+        return key;
+    }
+
+    /**
+     * キャッシュ済みのレポート。なければ null
+     */
+    public Entry get(Key key) {
+        Entry e;
+        synchronized (entries) {
+            e = entries.get(key);
+        }
+        if (e == null && directory != null) {
+            e = readDisk(key);
+            if (e != null) {
+                putMemory(key, e);
+                diskHits.incrementAndGet();
+            }
+        }
+        (e != null ? hits : misses).incrementAndGet();
+        return e;
+    }
+
+    public void put(Key key, ReportResult result, byte[] chart) {
+        Entry e = new Entry(result, chart);
+        putMemory(key, e);
+        if (directory != null) writeDisk(key, e);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long diskHitCount() {
+        return diskHits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long invalidationCount() {
+        return invalidations.get();
+    }
+
+    private void putMemory(Key key, Entry e) {
+        synchronized (entries) {
+            Entry old = entries.put(key, e);
+            if (old != null) memoryBytes -= old.bytes();
+            memoryBytes += e.bytes();
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || memoryBytes > maxMemoryBytes) && it.hasNext()) {
+                memoryBytes -= it.next().getValue().bytes();
+                it.remove();
+            }
+        }
+    }
+
+    private void invalidateIfChanged(Key key) {
+        String previous;
+        synchronized (entries) {
+            previous = fingerprints.put(key.csv(), key.fingerprint());
+            if (previous == null || previous.equals(key.fingerprint())) return;
+            Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Map.Entry<Key, Entry> e = it.next();
+                if (e.getKey().csv().equals(key.csv()) && !e.getKey().fingerprint().equals(key.fingerprint())) {
+                    memoryBytes -= e.getValue().bytes();
+                    it.remove();
+                }
+            }
+        }
+        invalidations.incrementAndGet();
+        log.info("Report CSV changed, dropping cached reports: {} ({} -> {})", key.csv(), previous, key.fingerprint());
+        if (directory != null) deleteDiskWhere(k -> k.csv().equals(key.csv()) && !k.fingerprint().equals(key.fingerprint()));
+    }
+
+    // ---- ディスク ----
+
+    private Entry readDisk(Key key) {
+        Path json = directory.resolve(key.id() + ".json");
+        Path png = directory.resolve(key.id() + ".png");
+        try {
+            if (!Files.exists(json) || !Files.exists(png)) return null;
+            Stored stored = mapper.readValue(json.toFile(), Stored.class);
+            if (!key.equals(stored.key())) return null;
+            byte[] chart = Files.readAllBytes(png);
+            // 読んだものは新しく扱う（ディスクの掃除は更新時刻の古い順）
+            FileTime now = FileTime.fromMillis(System.currentTimeMillis());
+            Files.setLastModifiedTime(json, now);
+            Files.setLastModifiedTime(png, now);
+            return new Entry(stored.result(), chart);
+        } catch (IOException e) {
+            log.warn("Failed to read cached report {}: {}", json, e.toString());
+            return null;
+        }
+    }
+
+    private void writeDisk(Key key, Entry e) {
+        try {
+            Files.createDirectories(directory);
+            // 読み手が書きかけのファイルを見ないように、一時ファイルに書いてから置き換える
+            Path png = directory.resolve(key.id() + ".png");
+            Path pngTmp = directory.resolve(key.id() + ".png.tmp");
+            Files.write(pngTmp, e.chart());
+            Files.move(pngTmp, png, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Path json = directory.resolve(key.id() + ".json");
+            Path jsonTmp = directory.resolve(key.id() + ".json.tmp");
+            Files.write(jsonTmp, mapper.writeValueAsBytes(new Stored(key, e.result())));
+            Files.move(jsonTmp, json, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            trimDisk();
+        } catch (IOException ex) {
+            log.warn("Failed to write cached report to {}: {}", directory, ex.toString());
+        }
+    }
+
+    // 合計が上限を超えていたら更新時刻の古いファイルから消す
+    private synchronized void trimDisk() throws IOException {
+        List<Path> files = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.{json,png}")) {
+            for (Path p : stream) {
+                files.add(p);
+                total += Files.size(p);
+            }
+        }
+        if (total <= maxDiskBytes) return;
+        files.sort(Comparator.comparing(ReportCache::lastModified));
+        for (Path p : files) {
+            if (total <= maxDiskBytes) break;
+            long size = Files.size(p);
+            if (Files.deleteIfExists(p)) total -= size;
+        }
+    }
+
+    private synchronized void deleteDiskWhere(Predicate<Key> stale) {
+        if (!Files.isDirectory(directory)) return;
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*.json")) {
+            for (Path json : stream) {
+                Key k = mapper.readValue(json.toFile(), Stored.class).key();
+                if (k != null && stale.test(k)) {
+                    Files.deleteIfExists(json);
+                    Files.deleteIfExists(directory.resolve(k.id() + ".png"));
+                }
+            }
+        } catch (IOException e) {
+            log.warn("Failed to clean cached reports in {}: {}", directory, e.toString());
+        }
+    }
+
+    private static FileTime lastModified(Path p) {
+        try {
+            return Files.getLastModifiedTime(p);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package com.example.report;
+
+import java.time.DateTimeException;
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.Month;
+import java.time.format.TextStyle;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.IsoFields;
+import java.time.temporal.TemporalAdjusters;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * レポートコマンドの期間（"this month" / "last 3 months" / "2024-03" / "Q1 2024" / "先月" など）を
+ * 日付の範囲 [start, end) と集計の粒度に直したもの。読めない期間は範囲なし（全期間）として扱う。
+ */
+public record ReportPeriod(String text, LocalDate start, LocalDate end, Granularity granularity) {
+
+    public enum Granularity {
+        DAY, WEEK, MONTH, QUARTER, YEAR;
+
+        /**
+         * 日付をこの粒度の区切りの先頭日に丸める
+         */
+        public LocalDate floor(LocalDate date) {
+            return switch (this) {
+                case DAY -> date;
+                case WEEK -> date.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                case MONTH -> date.withDayOfMonth(1);
+                case QUARTER -> date.withDayOfMonth(1).withMonth(((date.getMonthValue() - 1) / 3) * 3 + 1);
+                case YEAR -> date.withDayOfYear(1);
+            };
+        }
+
+        public String label(LocalDate bucket) {
+            return switch (this) {
+                case DAY, WEEK -> bucket.toString();
+                case MONTH -> bucket.toString().substring(0, 7);
+                case QUARTER -> bucket.getYear() + "-Q" + bucket.get(IsoFields.QUARTER_OF_YEAR);
+                case YEAR -> String.valueOf(bucket.getYear());
+            };
+        }
+
+        /**
+         * 期間の長さ（日数）に見合う粒度（1か月以内は日、3か月以内は週、2年以内は月、それ以上は四半期）
+         */
+        public static Granularity forSpan(long days) {
+            if (days <= 31) return DAY;
+            if (days <= 92) return WEEK;
+            if (days <= 731) return MONTH;
+            return QUARTER;
+        }
+    }
+
+    private static final Pattern LAST_N = Pattern.compile("(?:last|past|直近|過去)\\s*(\\d+)\\s*(day|week|month|year|日|週|か月|ヶ月|ヵ月|カ月|年)");
+    // 年は前後が数字でない4桁だけを拾い、さらに plausibleYear で範囲を確かめる（"top 1500 customers" を年にしない）
+    private static final Pattern YEAR_MONTH = Pattern.compile("(?<!\\d)(\\d{4})[-/年](\\d{1,2})(?!\\d)月?");
+    private static final Pattern QUARTER = Pattern.compile("q([1-4])\\s*(\\d{4})(?!\\d)|(?<!\\d)(\\d{4})\\s*q([1-4])");
+    private static final Pattern YEAR = Pattern.compile("(?<!\\d)(\\d{4})(?!\\d)年?");
+    private static final int MIN_YEAR = 1970;
+
+    public boolean bounded() {
+        return start != null;
+    }
+
+    public boolean contains(LocalDate date) {
+        return start == null || (!date.isBefore(start) && date.isBefore(end));
+    }
+
+    /**
+     * 読めない期間や日付にならない値（"2024-13"、"last 99999999 years" など）は範囲なしにする
+     */
+    public static ReportPeriod parse(String text, LocalDate today) {
+        try {
+            ReportPeriod period = parseRange(text, today);
+            if (period != null) return period;
+        } catch (DateTimeException | ArithmeticException | NumberFormatException e) {
+            // 範囲なしに倒す
+        }
+        return new ReportPeriod(text, null, null, null);
+    }
+
+    // 読めなければ null
+    private static ReportPeriod parseRange(String text, LocalDate today) {
+        String s = text == null ? "" : text.toLowerCase(Locale.ROOT).strip();
+
+        Matcher m = LAST_N.matcher(s);
+        if (m.find()) {
+            int n = Integer.parseInt(m.group(1));
+            ChronoUnit unit = switch (m.group(2)) {
+                case "day", "日" -> ChronoUnit.DAYS;
+                case "week", "週" -> ChronoUnit.WEEKS;
+                case "year", "年" -> ChronoUnit.YEARS;
+                default -> ChronoUnit.MONTHS;
+            };
+            LocalDate start = today.plusDays(1).minus(n, unit);
+            // MIN_YEAR より前まで遡るなら全期間と同じ
+            if (start.getYear() < MIN_YEAR) return null;
+            return range(text, start, today.plusDays(1));
+        }
+        if ((m = QUARTER.matcher(s)).find()) {
+            int q = Integer.parseInt(m.group(1) != null ? m.group(1) : m.group(4));
+            int year = Integer.parseInt(m.group(2) != null ? m.group(2) : m.group(3));
+            if (!plausibleYear(year, today)) return null;
+            LocalDate start = LocalDate.of(year, (q - 1) * 3 + 1, 1);
+            return range(text, start, start.plusMonths(3));
+        }
+        if ((m = YEAR_MONTH.matcher(s)).find()) {
+            int year = Integer.parseInt(m.group(1));
+            int monthValue = Integer.parseInt(m.group(2));
+            if (!plausibleYear(year, today) || monthValue < 1 || monthValue > 12) return null;
+            LocalDate start = LocalDate.of(year, monthValue, 1);
+            return range(text, start, start.plusMonths(1));
+        }
+
+        LocalDate month = today.withDayOfMonth(1);
+        LocalDate year = today.withDayOfYear(1);
+        LocalDate week = Granularity.WEEK.floor(today);
+        LocalDate quarter = Granularity.QUARTER.floor(today);
+        if (s.contains("this month") || s.contains("今月")) return range(text, month, month.plusMonths(1));
+        if (s.contains("last month") || s.contains("先月")) return range(text, month.minusMonths(1), month);
+        if (s.contains("this year") || s.contains("今年")) return range(text, year, year.plusYears(1));
+        if (s.contains("last year") || s.contains("昨年") || s.contains("去年")) return range(text, year.minusYears(1), year);
+        if (s.contains("this week") || s.contains("今週")) return range(text, week, week.plusWeeks(1));
+        if (s.contains("last week") || s.contains("先週")) return range(text, week.minusWeeks(1), week);
+        if (s.contains("this quarter") || s.contains("今期")) return range(text, quarter, quarter.plusMonths(3));
+        if (s.contains("last quarter") || s.contains("前期")) return range(text, quarter.minusMonths(3), quarter);
+        if (s.contains("yesterday") || s.contains("昨日")) return range(text, today.minusDays(1), today);
+        if (s.contains("today") || s.contains("今日")) return range(text, today, today.plusDays(1));
+
+        // "march" / "march 2024"
+        for (Month mo : Month.values()) {
+            String full = mo.getDisplayName(TextStyle.FULL, Locale.ENGLISH).toLowerCase(Locale.ROOT);
+            String shortName = mo.getDisplayName(TextStyle.SHORT, Locale.ENGLISH).toLowerCase(Locale.ROOT);
+            if (Pattern.compile("\\b(" + full + "|" + shortName + ")\\b").matcher(s).find()) {
+                int found = findYear(s, today);
+                int yearValue = found > 0 ? found : today.getYear();
+                LocalDate start = LocalDate.of(yearValue, mo, 1);
+                return range(text, start, start.plusMonths(1));
+            }
+        }
+        int yearValue = findYear(s, today);
+        if (yearValue > 0) {
+            LocalDate start = LocalDate.of(yearValue, 1, 1);
+            return range(text, start, start.plusYears(1));
+        }
+        return null;
+    }
+
+    // 最初に出てくる有り得る年。なければ -1
+    private static int findYear(String s, LocalDate today) {
+        Matcher m = YEAR.matcher(s);
+        while (m.find()) {
+            int year = Integer.parseInt(m.group(1));
+            if (plausibleYear(year, today)) return year;
+        }
+        return -1;
+    }
+
+    // 売上データの期間として有り得る年（1970年〜来年）
+    private static boolean plausibleYear(int year, LocalDate today) {
+        return year >= MIN_YEAR && year <= today.getYear() + 1;
+    }
+
+    private static ReportPeriod range(String text, LocalDate start, LocalDate end) {
+        return new ReportPeriod(text, start, end, Granularity.forSpan(ChronoUnit.DAYS.between(start, end)));
+    }
+
+    @Override
+    public String toString() {
+        return bounded() ? text + " (" + start + "〜" + end.minusDays(1) + ")" : text + " (全期間)";
+    }
+}
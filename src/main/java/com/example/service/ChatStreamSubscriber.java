@@ -0,0 +1,95 @@
+package com.example.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Chat Completions の SSE ストリーム（stream=true）を1行ずつ読み、
+ * choices[0].delta.content が届くたびに onDelta に渡して全文を組み立てる。
+ */
+class ChatStreamSubscriber implements Flow.Subscriber<String> {
+    private final ObjectMapper mapper;
+    private final Consumer<String> onDelta;
+    private final StringBuilder text = new StringBuilder();
+    private final StringBuilder raw = new StringBuilder(); // data: 以外の行（エラー時の JSON 本文）
+    private volatile String error;
+
+    ChatStreamSubscriber(ObjectMapper mapper, Consumer<String> onDelta) {
+        this.mapper = mapper;
+        this.onDelta = onDelta;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(String line) {
+        if (!line.startsWith("data:")) {
+            // ストリームにならずにエラーJSONがそのまま返ってきた場合に備えて残しておく
+            synchronized (raw) {
+                raw.append(line).append('\n');
+            }
+            return;
+        }
+
+        String data = line.substring("data:".length()).trim();
+        if (data.isEmpty() || data.equals("[DONE]")) return;
+
+        try {
+            JsonNode json = mapper.readTree(data);
+            if (json.has("error")) {
+                error = json.get("error").get("message").asText();
+                return;
+            }
+            JsonNode content = json.path("choices").path(0).path("delta").path("content");
+            if (content.isTextual() && !content.asText().isEmpty()) {
+                String delta = content.asText();
+                synchronized (text) {
+                    text.append(delta);
+                }
+                onDelta.accept(delta);
+            }
+        } catch (Exception e) {
+            // 壊れた行は読み飛ばす
+        }
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    /**
+     * ストリーム終了後の全文。エラーだった場合は従来の chat と同じ形式のメッセージ。
+     */
+    String result(int statusCode) {
+        if (error != null) {
+            return "OpenAI APIエラー: " + error;
+        }
+        if (statusCode != 200) {
+            String body;
+            synchronized (raw) {
+                body = raw.toString();
+            }
+            try {
+                JsonNode json = mapper.readTree(body);
+                if (json.has("error")) {
+                    return "OpenAI APIエラー: " + json.get("error").get("message").asText();
+                }
+            } catch (Exception ignore) {
+            }
+            return "OpenAI APIエラー: HTTP " + statusCode;
+        }
+        synchronized (text) {
+            return text.toString();
+        }
+    }
+}
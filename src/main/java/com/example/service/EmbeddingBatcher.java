@@ -0,0 +1,165 @@
+package com.example.service;
+
+import com.example.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 並行して来る1件ずつの Embedding 要求を束ねて、1回の Embeddings API 呼び出しにするバッチャ。
+ * maxBatchSize 件たまるか、最初の要求から maxDelayMillis 経ったら送る（どちらも設定可能）。
+ * 各呼び出し側には自分のテキストのベクトルだけを返す。
+ * 呼び出し側の future は HttpClient のスレッドではなく completer のスレッドで完了させる
+ * （後続の処理（検索の JDBC など）がバッチの件数ぶん1本のスレッドで順に走らないように）。
+ */
+public class EmbeddingBatcher {
+    private static final Logger log = LoggerFactory.getLogger(EmbeddingBatcher.class);
+
+    private final OpenAiClient openAiClient;
+    private final int maxBatchSize;
+    private final long maxDelayMillis;
+    private final ScheduledExecutorService timer;
+    private ExecutorService completer;
+
+    private List<Request> pending = new ArrayList<>();
+    private ScheduledFuture<?> deadline;
+
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong items = new AtomicLong();
+
+    public EmbeddingBatcher(OpenAiClient openAiClient, int maxBatchSize, long maxDelayMillis) {
+        if (maxBatchSize <= 0) throw new IllegalArgumentException("maxBatchSize must be > 0");
+        if (maxDelayMillis < 0) throw new IllegalArgumentException("maxDelayMillis must be >= 0");
+        this.openAiClient = openAiClient;
+        this.maxBatchSize = maxBatchSize;
+        this.maxDelayMillis = maxDelayMillis;
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "embedding-batcher");
+            t.setDaemon(true);
+            return t;
+        });
+        this.completer = newCompleter(4);
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.counter("embedding_batches_total", "Batched embedding requests sent", batches::get);
+        metrics.counter("embedding_batch_items_total", "Texts sent in batched embedding requests", items::get);
+    }
+
+    // 呼び出し側の future を完了させるスレッド数（後続の検索がこの数まで並行に走る）
+    public void setCompletionThreads(int completionThreads) {
+        ExecutorService previous = completer;
+        completer = newCompleter(Math.max(1, completionThreads));
+        previous.shutdown();
+    }
+
+    private static ExecutorService newCompleter(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "embedding-complete-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    /**
+     * テキスト1件の Embedding を要求する。返した future を cancel すると、未送信ならバッチから外れる。
+     */
+    public CompletableFuture<double[]> embedAsync(String text) {
+        Request request = new Request(text, new CompletableFuture<>());
+        List<Request> ready = null;
+        synchronized (this) {
+            pending.add(request);
+            if (pending.size() >= maxBatchSize) {
+                ready = takePending();
+            } else if (pending.size() == 1) {
+                deadline = timer.schedule(this::flushOnDeadline, maxDelayMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        if (ready != null) send(ready);
+        return request.result;
+    }
+
+    private void flushOnDeadline() {
+        List<Request> ready;
+        synchronized (this) {
+            if (pending.isEmpty()) return;
+            ready = takePending();
+        }
+        send(ready);
+    }
+
+    private List<Request> takePending() {
+        List<Request> ready = pending;
+        pending = new ArrayList<>();
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        return ready;
+    }
+
+    private void send(List<Request> batch) {
+        // cancel 済みを除き、同じテキストは1回だけ送る
+        Map<String, List<Request>> byText = new LinkedHashMap<>();
+        for (Request r : batch) {
+            if (!r.result.isDone()) {
+                byText.computeIfAbsent(r.text, k -> new ArrayList<>()).add(r);
+            }
+        }
+        if (byText.isEmpty()) return;
+
+        batches.incrementAndGet();
+        items.addAndGet(byText.size());
+        List<String> texts = new ArrayList<>(byText.keySet());
+        log.debug("Embedding batch: texts={} requests={}", texts.size(), batch.size());
+
+        Executor executor = completer;
+        openAiClient.embedAsync(texts, RequestPriority.INTERACTIVE).whenComplete((vectors, error) -> {
+            int i = 0;
+            for (List<Request> requests : byText.values()) {
+                for (Request r : requests) {
+                    if (error != null) {
+                        r.result.completeExceptionally(error);
+                    } else if (vectors.size() != texts.size()) {
+                        r.result.completeExceptionally(new IllegalStateException(
+                                "Embeddings API returned " + vectors.size() + " vectors for " + texts.size() + " texts"));
+                    } else {
+                        double[] vector = vectors.get(i);
+                        r.result.completeAsync(() -> vector, executor);
+                    }
+                }
+                i++;
+            }
+        });
+    }
+
+    // 送ったバッチ数と、バッチに詰めたテキスト数（平均バッチサイズの確認用）
+    public long batchCount() {
+        return batches.get();
+    }
+
+    public long itemCount() {
+        return items.get();
+    }
+
+    public void shutdown() {
+        timer.shutdown();
+        completer.shutdown();
+    }
+
+    private record Request(String text, CompletableFuture<double[]> result) {
+    }
+}
@@ -0,0 +1,123 @@
+package com.example.service;
+
+import com.example.metrics.MetricsRegistry;
+import com.example.repo.VectorCodec;
+
+import java.text.Normalizer;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 質問文の Embedding をプロセス内にキャッシュする LRU + TTL キャッシュ。
+ * 同じ質問（正規化後に一致するもの）は Embeddings API を呼ばずに済ませる。
+ * ベクトルは float[] で保持してメモリを抑える。
+ */
+public class EmbeddingCache {
+    private final OpenAiClient openAiClient;
+    private final int maxEntries;
+    private final long ttlMillis;
+    private EmbeddingBatcher batcher;
+
+    private final LinkedHashMap<String, Entry> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public EmbeddingCache(OpenAiClient openAiClient, int maxEntries, long ttlMillis) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0");
+        this.openAiClient = openAiClient;
+        this.maxEntries = maxEntries;
+        this.ttlMillis = ttlMillis;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > EmbeddingCache.this.maxEntries;
+            }
+        };
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.counter("cache_hits_total", "Cache hits", hits::get, "cache", "embedding");
+        metrics.counter("cache_misses_total", "Cache misses", misses::get, "cache", "embedding");
+        metrics.gauge("cache_entries", "Current number of cache entries", this::size, "cache", "embedding");
+    }
+
+    // キャッシュミスを他の同時要求とまとめて送るバッチャ（未設定なら1件ずつ API を呼ぶ）
+    public void setBatcher(EmbeddingBatcher batcher) {
+        this.batcher = batcher;
+    }
+
+    /**
+     * 質問文の Embedding を返す。キャッシュになければ API を呼んで登録する。
+     */
+    public float[] embed(String text) {
+        return embedAsync(text).join();
+    }
+
+    /**
+     * {@link #embed} の非同期版。キャッシュにあれば完了済みの future を返す。
+     */
+    public CompletableFuture<float[]> embedAsync(String text) {
+        String key = normalize(text);
+        long now = System.currentTimeMillis();
+
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            if (e != null && (ttlMillis <= 0 || now - e.createdAt < ttlMillis)) {
+                hits.incrementAndGet();
+                return CompletableFuture.completedFuture(e.vector);
+            }
+            if (e != null) {
+                entries.remove(key);
+            }
+        }
+
+        misses.incrementAndGet();
+        CompletableFuture<double[]> fetched = batcher != null
+                ? batcher.embedAsync(text)
+                : openAiClient.embedAsync(List.of(text)).thenApply(list -> list.get(0));
+        return fetched.thenApply(embedding -> {
+            float[] vector = VectorCodec.toFloats(embedding);
+            synchronized (entries) {
+                entries.put(key, new Entry(vector, now));
+            }
+            return vector;
+        });
+    }
+
+    /**
+     * 空白の揺れ・全角半角・大文字小文字を吸収したキーを作る。
+     */
+    static String normalize(String text) {
+        if (text == null) return "";
+        String s = Normalizer.normalize(text, Normalizer.Form.NFKC);
+        s = s.replaceAll("<@[^>]+>", " ");
+        s = s.strip().replaceAll("\\s+", " ");
+        return s.toLowerCase();
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public double hitRate() {
+        long h = hits.get();
+        long total = h + misses.get();
+        return total == 0 ? 0.0 : (double) h / total;
+    }
+
+    private record Entry(float[] vector, long createdAt) {
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.service;
+
+import com.example.util.Futures;
+import com.example.util.TokenEstimator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * 大きなスレッドの階層要約（map-reduce）。
+ * メッセージをトークン数の上限以内のセグメントに詰め、セグメントごとの要約を並列数を絞って作る（map）。
+ * 部分要約を連結してもまだ上限を超えるなら同じ手順で畳み込み（reduce）、収まった時点で最後の要約を1回だけ行う。
+ * 1段ごとに入力が (セグメント上限 / 部分要約の上限) 分の1以下に縮むので、段数はスレッドの大きさの対数で増える。
+ */
+class MapReduceSummarizer {
+    private static final Logger log = LoggerFactory.getLogger(MapReduceSummarizer.class);
+    // reduce が縮まない入力（要約が長すぎる等）で止まらなくならないための段数の上限
+    private static final int MAX_LEVELS = 8;
+
+    private final int segmentTokens;
+    private final int maxConcurrency;
+
+    MapReduceSummarizer(int segmentTokens, int maxConcurrency) {
+        if (segmentTokens <= 0) throw new IllegalArgumentException("segmentTokens must be > 0");
+        this.segmentTokens = segmentTokens;
+        this.maxConcurrency = Math.max(1, maxConcurrency);
+    }
+
+    /**
+     * @param messages   要約するメッセージ
+     * @param mapSegment セグメント（"- " 区切りのテキスト）を要約する。map と途中の reduce で使う
+     * @param finish     上限に収まったテキストから最終的な要約を作る（ストリーミングはここだけ）
+     */
+    CompletableFuture<String> summarize(List<String> messages,
+                                        Function<String, CompletableFuture<String>> mapSegment,
+                                        Function<String, CompletableFuture<String>> finish) {
+        List<String> items = messages.stream().map(m -> truncate("- " + m)).toList();
+        return reduce(items, 0, mapSegment, finish);
+    }
+
+    private CompletableFuture<String> reduce(List<String> items, int level,
+                                             Function<String, CompletableFuture<String>> mapSegment,
+                                             Function<String, CompletableFuture<String>> finish) {
+        List<String> segments = pack(items);
+        if (segments.size() <= 1) {
+            return finish.apply(segments.isEmpty() ? "" : segments.get(0));
+        }
+        if (level >= MAX_LEVELS) {
+            // ここまで縮まないのは部分要約が長すぎるとき。残りのセグメントを均等に切り詰めて全部を最後の要約に入れる
+            log.warn("Map-reduce summary did not converge after {} levels ({} segments left), truncating each segment",
+                    level, segments.size());
+            int share = Math.max(1, (segmentTokens - segments.size()) / segments.size());
+            List<String> truncated = segments.stream().map(segment -> truncate(segment, share)).toList();
+            return finish.apply(String.join("\n", truncated));
+        }
+
+        log.info("Map-reduce summary level {}: {} items -> {} segments", level, items.size(), segments.size());
+        return Futures.thenCompose(mapAll(segments, mapSegment), partials -> reduce(
+                partials.stream().map(p -> truncate("- " + p)).toList(), level + 1, mapSegment, finish));
+    }
+
+    /**
+     * 先頭から順に、上限を超えない範囲でメッセージを詰めてセグメントにする（順序は保つ）
+     */
+    List<String> pack(List<String> items) {
+        List<String> segments = new ArrayList<>();
+        List<String> current = new ArrayList<>();
+        int currentTokens = 0;
+        for (String item : items) {
+            int tokens = TokenEstimator.estimate(item) + 1;
+            if (!current.isEmpty() && currentTokens + tokens > segmentTokens) {
+                segments.add(String.join("\n", current));
+                current.clear();
+                currentTokens = 0;
+            }
+            current.add(item);
+            currentTokens += tokens;
+        }
+        if (!current.isEmpty()) segments.add(String.join("\n", current));
+        return segments;
+    }
+
+    /**
+     * 同時に maxConcurrency 本まで走らせ、結果をセグメントの順で返す。
+     * 待ちはスレッドを止めずに、1本終わるたびに次のセグメントを始める形でつなぐ。
+     */
+    private CompletableFuture<List<String>> mapAll(List<String> segments, Function<String, CompletableFuture<String>> mapSegment) {
+        String[] results = new String[segments.size()];
+        AtomicInteger next = new AtomicInteger();
+        List<CompletableFuture<Void>> workers = new ArrayList<>();
+        for (int w = 0; w < Math.min(maxConcurrency, segments.size()); w++) {
+            workers.add(runNext(segments, results, next, mapSegment));
+        }
+        CompletableFuture<List<String>> all = CompletableFuture.allOf(workers.toArray(CompletableFuture[]::new))
+                .thenApply(v -> List.of(results));
+        // 1本でも失敗したら全体を失敗させる（下で残りを始めず、実行中のセグメントも止める）
+        workers.forEach(f -> f.whenComplete((v, e) -> {
+            if (e != null) all.completeExceptionally(e);
+        }));
+        // 全体が失敗・cancel されたら残りを始めず、実行中のセグメントも止める
+        all.whenComplete((v, e) -> {
+            if (e != null) {
+                next.set(segments.size());
+                workers.forEach(f -> f.cancel(true));
+            }
+        });
+        return all;
+    }
+
+    private CompletableFuture<Void> runNext(List<String> segments, String[] results, AtomicInteger next,
+                                            Function<String, CompletableFuture<String>> mapSegment) {
+        int i = next.getAndIncrement();
+        if (i >= segments.size()) return CompletableFuture.completedFuture(null);
+        return Futures.thenCompose(mapSegment.apply(segments.get(i)), summary -> {
+            results[i] = summary;
+            return runNext(segments, results, next, mapSegment);
+        });
+    }
+
+    // 1件で上限を超えるメッセージは、上限に収まる長さまで切り詰める
+    private String truncate(String item) {
+        return truncate(item, segmentTokens);
+    }
+
+    // limit トークン未満に収まる長さまで切り詰める
+    private static String truncate(String item, int limit) {
+        if (TokenEstimator.estimate(item) < limit) return item;
+        // ASCII は4文字≒1トークンなので、4倍の文字数から縮める
+        int end = Math.min(item.length(), limit * 4);
+        while (end > 0 && TokenEstimator.estimate(item.substring(0, end)) >= limit) {
+            end = end * 3 / 4;
+        }
+        return item.substring(0, end) + "…";
+    }
+}
@@ -10,275 +10,535 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.springframework.beans.factory.annotation.Value;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.example.metrics.MetricsRegistry;
+import com.example.util.Futures;
+import com.example.util.TokenEstimator;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.ArrayList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * OpenAI API クライアント。
+ * xxxAsync は HttpClient#sendAsync の上に組んだ CompletableFuture を返し、呼び出し側でスレッドを待たせずに
+ * thenCompose / orTimeout / cancel で組み合わせられる。同期版は非同期版を join したもの。
+ * すべての呼び出しは {@link RateLimitScheduler} を通し、レート制限内で {@link RequestPriority} の高い順に送る。
+ */
 public class OpenAiClient {
     private static final Logger log = LoggerFactory.getLogger(OpenAiClient.class);
+    public static final String EMBEDDING_MODEL = "text-embedding-3-small";
+
+    private static final String DEFAULT_BASE_URL = "https://api.openai.com/v1";
+    private static final String SUMMARY_PROMPT = "Summarize: Slack thread about summary";
+    private static final String PARTIAL_SUMMARY_PROMPT = "Summarize: one part of a long Slack thread. Keep facts, dates and decisions.";
+    // 要約の出力トークン数の上限（部分要約 / 最終要約）
+    private static final int PARTIAL_SUMMARY_MAX_TOKENS = 400;
+    private static final int SUMMARY_MAX_TOKENS = 1000;
+
     private final String apiKey;
+    private final String baseUrl;
     private final HttpClient httpClient;
     private final ObjectMapper mapper;
+    private final RateLimitScheduler scheduler;
+    // 同じ URL・同じリクエスト本文の実行中の呼び出しは1本にまとめる
+    private final SingleFlight<JsonNode> inFlightPosts = new SingleFlight<>();
+    private final SingleFlight<String> inFlightStreams = new SingleFlight<>();
+    private int summarySegmentTokens = 3000;
+    private int summaryConcurrency = 8;
+    private int maxRequestTokens = 12000;
 
     public OpenAiClient(@Value("${openai.api.key}") String apiKey) {
+        this(apiKey, DEFAULT_BASE_URL);
+    }
+
+    // baseUrl を差し替えるとローカルのスタブサーバーに向けられる（例: http://localhost:8089/v1）
+    public OpenAiClient(String apiKey, String baseUrl) {
         this.apiKey = apiKey;
+        this.baseUrl = baseUrl.endsWith("/") ? baseUrl.substring(0, baseUrl.length() - 1) : baseUrl;
         this.httpClient = HttpClient.newHttpClient();
         this.mapper = new ObjectMapper();
+        this.scheduler = new RateLimitScheduler(500, 200_000);
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("openai_pending_requests", "Requests waiting for rate-limit budget", scheduler::queueDepth);
+        metrics.counter("openai_retries_total", "Retried OpenAI requests (429 / 5xx / I/O)", scheduler::retryCount);
+        metrics.counter("openai_throttled_total", "Times a request had to wait for rate-limit budget",
+                scheduler::throttledCount);
+        metrics.counter("openai_coalesced_total", "Requests served by an identical in-flight call",
+                this::coalescedCount);
     }
 
-    public ReportResult generateReport(String reportType, String period, String csvData) {
-        try {
-            String systemPrompt = """
-                    You are an AI assistant that generates business reports based on structured data.
-                    
-                    Your tasks:
-                    1. Identify key metrics from the provided data.
-                    2. Suggest which metrics should be visualized in a graph.
-                    3. Generate a clear and concise report in Japanese.
-                    4. Provide insights and recommendations.
-                    
-                    Output must be in JSON format:
-                    {
-                      "summary": "日本語の要約",
-                      "graph_items": ["..."],
-                      "insights": ["..."],
-                      "recommendations": ["..."]
-                    }
-                    """;
-
-            String userPrompt = """
-                    Report type: %s
-                    Target period: %s
-                    
-                    Here is the dataset:
-                    %s
-                    """.formatted(reportType, period, csvData);
-
-            log.info("[Report] callOpenAi Call Start");
-            // ★ ChatCompletion 呼び出し
-            String response = callOpenAi(systemPrompt, userPrompt);
-
-            // コードブロック除去
-            String cleaned = response
-                    .replace("```json", "")
-                    .replace("```", "")
-                    .trim();
-
-            // ★ JSON をパースして ReportResult に変換
-            return ReportResult.fromJson(cleaned);
-        } catch (Exception e) {
-            log.info("[Report] ReportResult Exception Catch");
-            throw new RuntimeException("ReportResult Call Failed", e);
+    // 1分あたりのリクエスト数の上限（レスポンスの x-ratelimit-limit-requests があればそちらに合わせる）
+    public void setRequestsPerMinute(int requestsPerMinute) {
+        scheduler.setRequestsPerMinute(Math.max(1, requestsPerMinute));
+    }
+
+    // 1分あたりのトークン数の上限（レスポンスの x-ratelimit-limit-tokens があればそちらに合わせる）
+    public void setTokensPerMinute(int tokensPerMinute) {
+        scheduler.setTokensPerMinute(Math.max(1, tokensPerMinute));
+    }
+
+    // 429 / 5xx / 通信エラー時の再送回数の上限
+    public void setMaxRetries(int maxRetries) {
+        scheduler.setMaxRetries(maxRetries);
+    }
+
+    // 要約で1回のリクエストに載せるメッセージのトークン数（超えるスレッドは map-reduce で階層的に要約する）
+    public void setSummarySegmentTokens(int summarySegmentTokens) {
+        this.summarySegmentTokens = Math.max(100, summarySegmentTokens);
+    }
+
+    // map-reduce 要約で同時に投げるセグメント要約の数
+    public void setSummaryConcurrency(int summaryConcurrency) {
+        this.summaryConcurrency = Math.max(1, summaryConcurrency);
+    }
+
+    // 要約の1リクエストあたりのトークン数（プロンプト + 出力）の上限。定型部分と出力分を引いて 100 トークン以上残ること
+    public void setMaxRequestTokens(int maxRequestTokens) {
+        int minimum = summaryOverheadTokens() + SUMMARY_MAX_TOKENS + 100;
+        if (maxRequestTokens <= minimum) {
+            throw new IllegalArgumentException("maxRequestTokens must be > " + minimum + ": " + maxRequestTokens);
         }
+        this.maxRequestTokens = maxRequestTokens;
     }
 
-    public List<double[]> embed(List<String> texts) {
-        try {
-            // JSONリクエスト構築
-            ObjectNode root = mapper.createObjectNode();
-            root.put("model", "text-embedding-3-small");
-            // inputにList<String>をそのまま渡す
-            root.set("input", mapper.valueToTree(texts));
+    // 送信待ちのリクエスト数
+    public int pendingRequests() {
+        return scheduler.queueDepth();
+    }
 
-            String body = mapper.writeValueAsString(root);
+    public long throttledCount() {
+        return scheduler.throttledCount();
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/embeddings"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(body))
-                    .build();
+    public long retryCount() {
+        return scheduler.retryCount();
+    }
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            JsonNode json = mapper.readTree(response.body());
+    // 実行中の同一リクエストに相乗りして HTTP 呼び出しを省いた回数
+    public long coalescedCount() {
+        return inFlightPosts.coalescedCount() + inFlightStreams.coalescedCount();
+    }
 
-            if (json.has("error")) {
-                throw new RuntimeException("OpenAI APIエラー: " + json.get("error").get("message").asText());
-            }
+    public ReportResult generateReport(String reportType, String period, String dataSummary) {
+        return join(generateReportAsync(reportType, period, dataSummary));
+    }
 
-            // data配列に各テキストのembeddingが入っている
-            List<double[]> embeddings = new ArrayList<>();
-            for (JsonNode dataNode : json.get("data")) {
-                JsonNode embeddingNode = dataNode.get("embedding");
-                double[] embedding = new double[embeddingNode.size()];
-                for (int i = 0; i < embeddingNode.size(); i++) {
-                    embedding[i] = embeddingNode.get(i).asDouble();
+    /**
+     * dataSummary は CSV そのものではなく CsvAggregator で集計済みの要約（列の統計と期間ごとの合計）
+     */
+    public CompletableFuture<ReportResult> generateReportAsync(String reportType, String period, String dataSummary) {
+        String systemPrompt = """
+                You are an AI assistant that generates business reports based on structured data.
+
+                The data is a pre-aggregated summary of the dataset (column statistics and
+                totals per period or category), not the raw rows.
+
+                Your tasks:
+                1. Identify key metrics from the provided data.
+                2. Generate a clear and concise report in Japanese.
+                3. Provide insights and recommendations.
+
+                Output must be in JSON format:
+                {
+                  "summary": "日本語の要約",
+                  "insights": ["..."],
+                  "recommendations": ["..."]
                 }
-                embeddings.add(embedding);
-            }
+                """;
+
+        String userPrompt = """
+                Report type: %s
+                Target period: %s
+
+                Here is the pre-aggregated summary of the dataset:
+                %s
+                """.formatted(reportType, period, dataSummary);
+
+        log.info("[Report] callOpenAi Call Start");
+        // ★ ChatCompletion 呼び出し
+        CompletableFuture<String> called = callOpenAiAsync(systemPrompt, userPrompt);
+        return Futures.cancelUpstream(called, called
+                .thenApply(response -> {
+                    // コードブロック除去
+                    String cleaned = response
+                            .replace("```json", "")
+                            .replace("```", "")
+                            .trim();
+
+                    // ★ JSON をパースして ReportResult に変換
+                    return ReportResult.fromJson(cleaned);
+                })
+                .exceptionally(e -> {
+                    log.info("[Report] ReportResult Exception Catch");
+                    throw new RuntimeException("ReportResult Call Failed", unwrap(e));
+                }));
+    }
+
+    public List<double[]> embed(List<String> texts) {
+        return join(embedAsync(texts));
+    }
 
-            return embeddings;
+    public List<double[]> embed(List<String> texts, RequestPriority priority) {
+        return join(embedAsync(texts, priority));
+    }
 
+    public CompletableFuture<List<double[]>> embedAsync(List<String> texts) {
+        return embedAsync(texts, RequestPriority.INTERACTIVE);
+    }
+
+    public CompletableFuture<List<double[]>> embedAsync(List<String> texts, RequestPriority priority) {
+        try {
+            // JSONリクエスト構築
+            ObjectNode root = mapper.createObjectNode();
+            root.put("model", EMBEDDING_MODEL);
+            // inputにList<String>をそのまま渡す
+            root.set("input", mapper.valueToTree(texts));
+
+            return postAsync(baseUrl + "/embeddings", root, priority)
+                    .thenApply(json -> {
+                        if (json.has("error")) {
+                            throw new RuntimeException("OpenAI APIエラー: " + json.get("error").get("message").asText());
+                        }
+
+                        return parseEmbeddings(json);
+                    })
+                    .exceptionally(e -> {
+                        throw new RuntimeException("Embeddings API呼び出し失敗", unwrap(e));
+                    });
         } catch (Exception e) {
-            throw new RuntimeException("Embeddings API呼び出し失敗", e);
+            return CompletableFuture.failedFuture(new RuntimeException("Embeddings API呼び出し失敗", e));
         }
     }
 
-    public String chat(String context, String question) {
-        try {
-            String prompt = "以下のFAQを参考に質問に答えてください:\n" + context + "\n質問: " + question;
+    // data配列に各テキストのembeddingが入っている（ベンチマークからも呼ぶ）
+    static List<double[]> parseEmbeddings(JsonNode json) {
+        List<double[]> embeddings = new ArrayList<>();
+        for (JsonNode dataNode : json.get("data")) {
+            JsonNode embeddingNode = dataNode.get("embedding");
+            double[] embedding = new double[embeddingNode.size()];
+            for (int i = 0; i < embeddingNode.size(); i++) {
+                embedding[i] = embeddingNode.get(i).asDouble();
+            }
+            embeddings.add(embedding);
+        }
+        return embeddings;
+    }
 
-            ObjectNode root = mapper.createObjectNode();
-            root.put("model", "ft:gpt-3.5-turbo-0125:testplatform::CoBT8aLN");
+    public String chat(String context, String question) {
+        return join(chatAsync(context, question));
+    }
 
-            ArrayNode messages = mapper.createArrayNode();
+    public CompletableFuture<String> chatAsync(String context, String question) {
+        ObjectNode root = chatRequest(context, question);
 
-            ObjectNode systemMsg = mapper.createObjectNode();
-            systemMsg.put("role", "system");
-            systemMsg.put("content", "あなたはFAQに基づいて回答するアシスタントです。");
-            messages.add(systemMsg);
+        CompletableFuture<JsonNode> posted = postAsync(baseUrl + "/chat/completions", root, RequestPriority.INTERACTIVE);
+        return Futures.cancelUpstream(posted, posted
+                .thenApply(json -> {
+                    if (json.has("error")) {
+                        return "OpenAI APIエラー: " + json.get("error").get("message").asText();
+                    }
 
-            ObjectNode userMsg = mapper.createObjectNode();
-            userMsg.put("role", "user");
-            userMsg.put("content", prompt);
-            messages.add(userMsg);
+                    return json.get("choices").get(0).get("message").get("content").asText();
+                })
+                .exceptionally(e -> {
+                    throw new RuntimeException("OpenAI API呼び出し失敗", unwrap(e));
+                }));
+    }
 
-            root.set("messages", messages);
+    /**
+     * chat のストリーミング版。トークンが届くたびに onDelta を呼び、完了時に全文を返す。
+     */
+    public CompletableFuture<String> chatStreamAsync(String context, String question, Consumer<String> onDelta) {
+        CompletableFuture<String> streamed = streamAsync(chatRequest(context, question), onDelta, RequestPriority.INTERACTIVE);
+        return Futures.cancelUpstream(streamed, streamed
+                .exceptionally(e -> {
+                    throw new RuntimeException("OpenAI API呼び出し失敗", unwrap(e));
+                }));
+    }
 
-            String body = mapper.writeValueAsString(root);
+    private ObjectNode chatRequest(String context, String question) {
+        String prompt = "以下のFAQを参考に質問に答えてください:\n" + context + "\n質問: " + question;
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/chat/completions"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(body))
-                    .build();
+        ObjectNode root = mapper.createObjectNode();
+        root.put("model", "ft:gpt-3.5-turbo-0125:testplatform::CoBT8aLN");
 
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            JsonNode json = mapper.readTree(response.body());
+        ArrayNode messages = mapper.createArrayNode();
 
-            if (json.has("error")) {
-                return "OpenAI APIエラー: " + json.get("error").get("message").asText();
-            }
+        ObjectNode systemMsg = mapper.createObjectNode();
+        systemMsg.put("role", "system");
+        systemMsg.put("content", "あなたはFAQに基づいて回答するアシスタントです。");
+        messages.add(systemMsg);
 
-            return json.get("choices").get(0).get("message").get("content").asText();
+        ObjectNode userMsg = mapper.createObjectNode();
+        userMsg.put("role", "user");
+        userMsg.put("content", prompt);
+        messages.add(userMsg);
 
-        } catch (Exception e) {
-            throw new RuntimeException("OpenAI API呼び出し失敗", e);
-        }
+        root.set("messages", messages);
+        return root;
     }
 
     public String summarize(List<String> representatives) {
+        return join(summarizeAsync(representatives));
+    }
+
+    /**
+     * 代表メッセージを要約する。1リクエストに収まらない量なら {@link MapReduceSummarizer} で
+     * セグメントごとに要約してから畳み込む。
+     */
+    public CompletableFuture<String> summarizeAsync(List<String> representatives) {
         if (representatives == null || representatives.isEmpty()) {
-            return "要約対象のメッセージがありません。";
+            return CompletableFuture.completedFuture("要約対象のメッセージがありません。");
         }
 
-        // 代表メッセージを連結してプロンプトを作成
-        String joined = representatives.stream()
-                .map(msg -> "- " + msg)
-                .collect(Collectors.joining("\n"));
-
-        String userPrompt = "Summarize: Slack thread about summary";
-
-        // OpenAIのChatCompletion APIを呼び出す（既存のメソッドを利用）
-        return callChatCompletion(userPrompt, joined);
+        CompletableFuture<String> summary = summarizer().summarize(representatives, this::summarizeSegmentAsync,
+                context -> callChatCompletionAsync(SUMMARY_PROMPT, context));
+        return Futures.cancelUpstream(summary, summary
+                .exceptionally(e -> {
+                    log.error("Summarize call failed", unwrap(e));
+                    return "要約処理中にエラーが発生しました。";
+                }));
     }
 
-    private String callOpenAi(String systemPrompt, String userPrompt) {
-        log.info("[Report] callOpenAi START");
-        try {
-            ObjectNode root = mapper.createObjectNode();
-            root.put("model", "gpt-4o");
-
-            ArrayNode messages = mapper.createArrayNode();
+    /**
+     * summarize のストリーミング版。トークンが届くたびに onDelta を呼び、完了時に全文を返す。
+     * map-reduce になる場合は最後の要約だけをストリーミングする。
+     */
+    public CompletableFuture<String> summarizeStreamAsync(List<String> representatives, Consumer<String> onDelta) {
+        if (representatives == null || representatives.isEmpty()) {
+            return CompletableFuture.completedFuture("要約対象のメッセージがありません。");
+        }
 
-            ObjectNode systemMsg = mapper.createObjectNode();
-            systemMsg.put("role", "system");
-            systemMsg.put("content", systemPrompt);
-            messages.add(systemMsg);
+        CompletableFuture<String> summary = summarizer().summarize(representatives, this::summarizeSegmentAsync,
+                context -> streamAsync(summaryRequest(SUMMARY_PROMPT, context, SUMMARY_MAX_TOKENS), onDelta,
+                        RequestPriority.SUMMARIZATION));
+        return Futures.cancelUpstream(summary, summary
+                .exceptionally(e -> {
+                    log.error("Summarize call failed", unwrap(e));
+                    return "要約処理中にエラーが発生しました。";
+                }));
+    }
 
-            ObjectNode userMsg = mapper.createObjectNode();
-            userMsg.put("role", "user");
-            userMsg.put("content", userPrompt);
-            messages.add(userMsg);
+    // セグメントの上限は、プロンプトの定型部分と出力分を引いても1リクエストの上限に収まる値にする
+    private MapReduceSummarizer summarizer() {
+        int segment = Math.min(summarySegmentTokens, maxRequestTokens - summaryOverheadTokens() - SUMMARY_MAX_TOKENS);
+        return new MapReduceSummarizer(segment, summaryConcurrency);
+    }
 
-            root.set("messages", messages);
+    // 要約リクエストのうちメッセージ以外の定型部分（プロンプト・JSON の枠）のトークン数
+    private int summaryOverheadTokens() {
+        return TokenEstimator.estimate(summaryRequest(SUMMARY_PROMPT, "", 0).toString()) + 50;
+    }
 
-            String body = mapper.writeValueAsString(root);
+    // map / 途中の reduce の1セグメント分の要約（失敗はそのまま例外で返して全体を失敗にする）
+    private CompletableFuture<String> summarizeSegmentAsync(String segment) {
+        ObjectNode root = summaryRequest(PARTIAL_SUMMARY_PROMPT, segment, PARTIAL_SUMMARY_MAX_TOKENS);
+        CompletableFuture<JsonNode> posted = postAsync(baseUrl + "/chat/completions", root, RequestPriority.SUMMARIZATION);
+        return Futures.cancelUpstream(posted, posted
+                .thenApply(json -> {
+                    if (json.has("error")) {
+                        throw new IllegalStateException("OpenAI APIエラー: " + json.get("error").get("message").asText());
+                    }
+                    return json.get("choices").get(0).get("message").get("content").asText();
+                }));
+    }
 
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/chat/completions"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(body))
-                    .build();
+    private CompletableFuture<String> callOpenAiAsync(String systemPrompt, String userPrompt) {
+        log.info("[Report] callOpenAi START");
+        ObjectNode root = mapper.createObjectNode();
+        root.put("model", "gpt-4o");
+
+        ArrayNode messages = mapper.createArrayNode();
+
+        ObjectNode systemMsg = mapper.createObjectNode();
+        systemMsg.put("role", "system");
+        systemMsg.put("content", systemPrompt);
+        messages.add(systemMsg);
+
+        ObjectNode userMsg = mapper.createObjectNode();
+        userMsg.put("role", "user");
+        userMsg.put("content", userPrompt);
+        messages.add(userMsg);
+
+        root.set("messages", messages);
+
+        CompletableFuture<JsonNode> posted = postAsync(baseUrl + "/chat/completions", root, RequestPriority.SUMMARIZATION);
+        return Futures.cancelUpstream(posted, posted
+                .thenApply(json -> {
+                    log.info("[OpenAI RAW] {}", json);
+
+                    // content を取得
+                    String content = json.get("choices").get(0).get("message").get("content").asText();
+
+                    // コードブロック除去
+                    return content
+                            .replace("```json", "")
+                            .replace("```", "")
+                            .trim();
+                })
+                .exceptionally(e -> {
+                    log.info("[Report] Exception Catch: OpenAI API Call Failed");
+                    throw new RuntimeException("OpenAI API呼び出し失敗", unwrap(e));
+                }));
+    }
 
-            HttpResponse<String> response = httpClient.send(
-                    request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)
-            );
+    private CompletableFuture<String> callChatCompletionAsync(String userPrompt, String context) {
+        ObjectNode root = summaryRequest(userPrompt, context, SUMMARY_MAX_TOKENS);
 
-            log.info("[OpenAI RAW] {}", response.body());
+        CompletableFuture<JsonNode> posted = postAsync(baseUrl + "/chat/completions", root, RequestPriority.SUMMARIZATION);
+        return Futures.cancelUpstream(posted, posted
+                .thenApply(json -> {
+                    if (json.has("error")) {
+                        return "OpenAI APIエラー: " + json.get("error").get("message").asText();
+                    }
 
-            JsonNode json = mapper.readTree(response.body());
+                    return json.get("choices").get(0).get("message").get("content").asText();
+                })
+                .exceptionally(e -> {
+                    log.error("Summarize call failed", unwrap(e));
+                    return "要約処理中にエラーが発生しました。";
+                }));
+    }
 
-            // content を取得
-            String content = json.get("choices").get(0).get("message").get("content").asText();
+    private ObjectNode summaryRequest(String userPrompt, String context, int maxTokens) {
+        ObjectNode root = mapper.createObjectNode();
+        root.put("model", "ft:gpt-3.5-turbo-0125:testplatform::CoBT8aLN"); // 実際に利用するモデル名
+        if (maxTokens > 0) root.put("max_tokens", maxTokens);
+
+        ArrayNode messages = mapper.createArrayNode();
+
+        ObjectNode systemMsg = mapper.createObjectNode();
+        systemMsg.put("role", "system");
+        systemMsg.put("content",
+                "You are a helpful assistant that summarizes Slack threads in bullet points.\n\n"
+                        + "Summarize the following messages focusing on:\n"
+                        + "- 重要な事実\n"
+                        + "- 期限や日時\n"
+                        + "- 質問と回答の関係\n"
+                        + "- 決定事項\n\n"
+                        + "Here are the representative messages:\n"
+                        + context
+        );
+        messages.add(systemMsg);
+
+        ObjectNode userMsg = mapper.createObjectNode();
+        userMsg.put("role", "user");
+        userMsg.put("content", userPrompt);
+        messages.add(userMsg);
+
+        root.set("messages", messages);
+        return root;
+    }
 
-            // コードブロック除去
-            String cleaned = content
-                    .replace("```json", "")
-                    .replace("```", "")
-                    .trim();
+    /**
+     * JSON を POST してレスポンスを JsonNode で返す。
+     * 同じ本文・同じ優先度のリクエストが実行中ならその結果を共有し、待ち手が全員 cancel したら HTTP 交換も中断する。
+     * 優先度をキーに含めるのは、INTERACTIVE の呼び出しがバックグラウンドの依頼に相乗りして後ろに並ばないようにするため。
+     */
+    private CompletableFuture<JsonNode> postAsync(String url, ObjectNode root, RequestPriority priority) {
+        String body;
+        try {
+            body = mapper.writeValueAsString(root);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
 
-            return cleaned;
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(url))
+                .header("Content-Type", "application/json")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        String endpoint = url.startsWith(baseUrl + "/") ? url.substring(baseUrl.length() + 1) : url;
+        long start = System.nanoTime();
+        CompletableFuture<JsonNode> result = inFlightPosts.execute(priority + "\n" + url + "\n" + body, ignored -> {
+            CompletableFuture<HttpResponse<String>> exchange = scheduler.submit(priority, TokenEstimator.estimate(body),
+                    () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.ofString(StandardCharsets.UTF_8)));
+            return Futures.cancelUpstream(exchange, exchange.thenApply(response -> {
+                try {
+                    return mapper.readTree(response.body());
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }));
+        });
+        return record(endpoint, result, start, json -> json.has("error"));
+    }
 
+    /**
+     * stream=true で POST し、SSE の delta を onDelta に流す。完了時に全文を返す。
+     * 同じ本文・同じ優先度のストリームが実行中なら合流し、それまでに届いた分をまとめて受け取ってから続きを受け取る。
+     */
+    private CompletableFuture<String> streamAsync(ObjectNode root, Consumer<String> onDelta, RequestPriority priority) {
+        root.put("stream", true);
+        String body;
+        try {
+            body = mapper.writeValueAsString(root);
         } catch (Exception e) {
-            log.info("[Report] Exception Catch: OpenAI API Call Failed");
-            throw new RuntimeException("OpenAI API呼び出し失敗", e);
+            return CompletableFuture.failedFuture(e);
         }
+
+        HttpRequest request = HttpRequest.newBuilder()
+                .uri(URI.create(baseUrl + "/chat/completions"))
+                .header("Content-Type", "application/json")
+                .header("Accept", "text/event-stream")
+                .header("Authorization", "Bearer " + apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body))
+                .build();
+
+        long start = System.nanoTime();
+        CompletableFuture<String> result = inFlightStreams.execute(priority + "\n" + body, onDelta, broadcast -> {
+            // 再送のたびに新しい subscriber で読み直す（429 / 5xx の本文には delta が含まれない）。
+            // delta を1つでも渡した後に切れたら、再送すると先頭部分が2回届くので再送しない
+            AtomicBoolean delivered = new AtomicBoolean();
+            Consumer<String> forward = delta -> {
+                delivered.set(true);
+                broadcast.accept(delta);
+            };
+            CompletableFuture<HttpResponse<ChatStreamSubscriber>> exchange = scheduler.submit(
+                    priority, TokenEstimator.estimate(body),
+                    () -> httpClient.sendAsync(request, HttpResponse.BodyHandlers.fromLineSubscriber(
+                            new ChatStreamSubscriber(mapper, forward), subscriber -> subscriber, null)),
+                    () -> !delivered.get());
+            return Futures.cancelUpstream(exchange,
+                    exchange.thenApply(response -> response.body().result(response.statusCode())));
+        });
+        return record("chat/completions:stream", result, start, text -> text.startsWith("OpenAI APIエラー"));
     }
 
-    private String callChatCompletion(String userPrompt, String context) {
-        try {
-            ObjectNode root = mapper.createObjectNode();
-            root.put("model", "ft:gpt-3.5-turbo-0125:testplatform::CoBT8aLN"); // 実際に利用するモデル名
-
-            ArrayNode messages = mapper.createArrayNode();
-
-            ObjectNode systemMsg = mapper.createObjectNode();
-            systemMsg.put("role", "system");
-            systemMsg.put("content",
-                    "You are a helpful assistant that summarizes Slack threads in bullet points.\n\n"
-                            + "Summarize the following messages focusing on:\n"
-                            + "- 重要な事実\n"
-                            + "- 期限や日時\n"
-                            + "- 質問と回答の関係\n"
-                            + "- 決定事項\n\n"
-                            + "Here are the representative messages:\n"
-                            + context
-            );
-            messages.add(systemMsg);
-
-            ObjectNode userMsg = mapper.createObjectNode();
-            userMsg.put("role", "user");
-            userMsg.put("content", userPrompt);
-            messages.add(userMsg);
-
-            root.set("messages", messages);
-
-            String body = mapper.writeValueAsString(root);
-
-            HttpRequest request = HttpRequest.newBuilder()
-                    .uri(URI.create("https://api.openai.com/v1/chat/completions"))
-                    .header("Content-Type", "application/json")
-                    .header("Authorization", "Bearer " + apiKey)
-                    .POST(HttpRequest.BodyPublishers.ofString(body))
-                    .build();
-
-            HttpResponse<String> response = httpClient.send(request, HttpResponse.BodyHandlers.ofString());
-            JsonNode json = mapper.readTree(response.body());
-
-            if (json.has("error")) {
-                return "OpenAI APIエラー: " + json.get("error").get("message").asText();
+    // エンドポイントごとの所要時間（送信待ちを含む）とエラー数を記録する
+    private static <T> CompletableFuture<T> record(String endpoint, CompletableFuture<T> future, long startNanos,
+                                                   Predicate<T> isError) {
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.stage("openai." + endpoint).time(future, startNanos);
+        future.whenComplete((r, e) -> {
+            if (e != null || isError.test(r)) {
+                metrics.counter("openai_errors_total", "Failed OpenAI requests", "endpoint", endpoint).increment();
             }
+        });
+        return future;
+    }
 
-            return json.get("choices").get(0).get("message").get("content").asText();
-
-        } catch (Exception e) {
-            e.printStackTrace();
-            return "要約処理中にエラーが発生しました。";
+    // 同期版: 非同期版の例外を元の RuntimeException のまま投げ直す
+    private static <T> T join(CompletableFuture<T> future) {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException re) throw re;
+            throw e;
         }
     }
+
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
 }
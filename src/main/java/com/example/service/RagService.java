@@ -1,36 +1,147 @@
 package com.example.service;
 
-import com.example.repo.FaqRepository;
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
+import com.example.rag.LexicalIndex;
+import com.example.rag.RankFusion;
+import com.example.rag.VectorStore;
 import com.example.util.Chunk;
+import com.example.util.Futures;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
 
 public class RagService {
+    // コンテキストに入れるチャンク数
+    private static final int CONTEXT_CHUNKS = 3;
+
+    private static final LatencyHistogram EMBED_LATENCY = MetricsRegistry.global().stage("rag.embed");
+    private static final LatencyHistogram SEARCH_LATENCY = MetricsRegistry.global().stage("rag.search");
+    private static final LatencyHistogram LEXICAL_LATENCY = MetricsRegistry.global().stage("rag.lexical_search");
+    private static final LatencyHistogram GENERATE_LATENCY = MetricsRegistry.global().stage("rag.generate");
+    private static final LatencyHistogram ANSWER_LATENCY = MetricsRegistry.global().stage("rag.answer");
+
     private final OpenAiClient openAiClient;
-    private final FaqRepository faqRepository;
+    private final VectorStore vectorStore;
+    private final EmbeddingCache embeddingCache;
+    private SemanticAnswerCache answerCache;
+    private LexicalIndex lexicalIndex;
+    private int fusionDepth = 20;
+    private int rrfK = 60;
 
-    public RagService(OpenAiClient openAiClient, FaqRepository faqRepository) {
+    public RagService(OpenAiClient openAiClient, VectorStore vectorStore, EmbeddingCache embeddingCache) {
         this.openAiClient = openAiClient;
-        this.faqRepository = faqRepository;
+        this.vectorStore = vectorStore;
+        this.embeddingCache = embeddingCache;
+    }
+
+    // 言い換えの質問に前回の回答を返すキャッシュ（未設定なら毎回生成する）
+    public void setAnswerCache(SemanticAnswerCache answerCache) {
+        this.answerCache = answerCache;
+    }
+
+    // ベクトル検索と順位融合する語彙索引（未設定ならベクトル検索のみ）
+    public void setLexicalIndex(LexicalIndex lexicalIndex) {
+        this.lexicalIndex = lexicalIndex;
+    }
+
+    // 融合するときに各検索から取る件数（コンテキストに入れるのは融合後の上位 CONTEXT_CHUNKS 件だけ）
+    public void setFusionDepth(int fusionDepth) {
+        this.fusionDepth = Math.max(1, fusionDepth);
+    }
+
+    // RRF の定数 k（大きいほど下位の順位も効く）
+    public void setRrfK(int rrfK) {
+        this.rrfK = Math.max(1, rrfK);
     }
 
     public String answer(String question) {
-        // 1. 質問をEmbedding
-        List<double[]> queryEmbeddingList = openAiClient.embed(List.of(question));
-        double[] queryEmbedding = queryEmbeddingList.get(0);
+        return answerAsync(question).join();
+    }
 
-        // 2. Supabase検索（上位3件）
-        List<Chunk> candidates = faqRepository.search(queryEmbedding, 3);
+    /**
+     * Embedding → 近傍検索 → 回答生成 をスレッドを待たせずにつなぐ
+     */
+    public CompletableFuture<String> answerAsync(String question) {
+        long start = System.nanoTime();
+        // 返した future を cancel したら、実行中の段（検索 / 回答生成の HTTP）も止める
+        return ANSWER_LATENCY.time(Futures.thenCompose(retrieve(question), r -> {
+            String cached = cachedAnswer(r);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+            // 4. OpenAIに質問＋コンテキストを渡して回答生成
+            long generateStart = System.nanoTime();
+            CompletableFuture<String> generated = GENERATE_LATENCY.time(openAiClient.chatAsync(r.context(), question), generateStart);
+            return Futures.cancelUpstream(generated, generated.thenApply(answer -> remember(r, answer)));
+        }), start);
+    }
+
+    /**
+     * answerAsync のストリーミング版。回答のトークンが届くたびに onDelta を呼ぶ。
+     * キャッシュにヒットした場合は回答全体を1回の onDelta で渡す。
+     */
+    public CompletableFuture<String> answerStreamAsync(String question, Consumer<String> onDelta) {
+        long start = System.nanoTime();
+        return ANSWER_LATENCY.time(Futures.thenCompose(retrieve(question), r -> {
+            String cached = cachedAnswer(r);
+            if (cached != null) {
+                onDelta.accept(cached);
+                return CompletableFuture.completedFuture(cached);
+            }
+            long generateStart = System.nanoTime();
+            CompletableFuture<String> generated =
+                    GENERATE_LATENCY.time(openAiClient.chatStreamAsync(r.context(), question, onDelta), generateStart);
+            return Futures.cancelUpstream(generated, generated.thenApply(answer -> remember(r, answer)));
+        }), start);
+    }
+
+    private CompletableFuture<Retrieval> retrieve(String question) {
+        // 語彙検索は Embedding を待たずに済ませておく（メモリ上の索引なので1ms未満）
+        List<Chunk> lexical = null;
+        if (lexicalIndex != null) {
+            long lexicalStart = System.nanoTime();
+            lexical = lexicalIndex.search(question, fusionDepth);
+            LEXICAL_LATENCY.since(lexicalStart);
+        }
+        List<Chunk> lexicalHits = lexical;
 
-        // 3. コンテキストを組み立て
-        StringBuilder context = new StringBuilder();
-        for (Chunk c : candidates) {
-            context.append(c.content()).append("\n");
+        // 1. 質問をEmbedding（同じ質問はキャッシュから）
+        long embedStart = System.nanoTime();
+        return EMBED_LATENCY.time(embeddingCache.embedAsync(question), embedStart)
+                // 2. 近傍検索（上位3件。語彙索引があれば両方から深めに取って RRF で上位3件に絞る）
+                .thenApply(queryEmbedding -> {
+                    long searchStart = System.nanoTime();
+                    List<Chunk> candidates;
+                    if (lexicalHits == null) {
+                        candidates = vectorStore.search(queryEmbedding, CONTEXT_CHUNKS);
+                    } else {
+                        List<Chunk> dense = vectorStore.search(queryEmbedding, fusionDepth);
+                        candidates = RankFusion.reciprocalRank(List.of(dense, lexicalHits), rrfK, CONTEXT_CHUNKS);
+                    }
+                    SEARCH_LATENCY.since(searchStart);
+                    // 3. コンテキストを組み立て
+                    StringBuilder context = new StringBuilder();
+                    for (Chunk c : candidates) {
+                        context.append(c.content()).append("\n");
+                    }
+                    return new Retrieval(queryEmbedding, candidates,
+                            "以下のFAQを参考に質問に答えてください:\n" + context);
+                });
+    }
+
+    private String cachedAnswer(Retrieval r) {
+        return answerCache == null ? null : answerCache.lookup(r.queryEmbedding(), r.chunks());
+    }
+
+    // エラーメッセージはキャッシュしない
+    private String remember(Retrieval r, String answer) {
+        if (answerCache != null && answer != null && !answer.startsWith("OpenAI APIエラー")) {
+            answerCache.put(r.queryEmbedding(), r.chunks(), answer);
         }
+        return answer;
+    }
 
-        // 4. OpenAIに質問＋コンテキストを渡して回答生成
-        return openAiClient.chat(
-                "以下のFAQを参考に質問に答えてください:\n" + context,
-                question
-        );
+    private record Retrieval(float[] queryEmbedding, List<Chunk> chunks, String context) {
     }
 }
@@ -0,0 +1,359 @@
+package com.example.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * OpenAI へのリクエストをレート制限内に収めて送るスケジューラ。
+ * リクエスト数とトークン数のトークンバケット（1分あたりの上限）を持ち、優先度順に送り出す。
+ * レスポンスの x-ratelimit-* ヘッダでバケットを実際の残量に合わせ、
+ * 429 / 5xx は retry-after（なければジッタ付き指数バックオフ）を待って再送する。
+ * ストリーミングは最初の delta を渡した後は再送しない（途中で切れたらそのまま失敗にする）。
+ */
+class RateLimitScheduler {
+    private static final Logger log = LoggerFactory.getLogger(RateLimitScheduler.class);
+    private static final Pattern DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)(ms|s|m|h)");
+    private static final long BASE_BACKOFF_MILLIS = 500;
+    private static final long MAX_BACKOFF_MILLIS = 30_000;
+
+    private final PriorityQueue<Job<?>> queue = new PriorityQueue<>();
+    private final ScheduledExecutorService timer;
+    private final Bucket requests;
+    private final Bucket tokens;
+    private volatile int maxRetries = 4;
+
+    // 429 を受けたら全体をこの時刻まで止める
+    private long pausedUntil;
+    private ScheduledFuture<?> wakeup;
+    private long wakeupAt;
+    private long seq;
+
+    private final AtomicLong throttled = new AtomicLong();
+    private final AtomicLong retried = new AtomicLong();
+
+    RateLimitScheduler(int requestsPerMinute, int tokensPerMinute) {
+        this.requests = new Bucket(requestsPerMinute);
+        this.tokens = new Bucket(tokensPerMinute);
+        this.timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "openai-scheduler");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    synchronized void setRequestsPerMinute(int limit) {
+        requests.setCapacity(limit);
+    }
+
+    synchronized void setTokensPerMinute(int limit) {
+        tokens.setCapacity(limit);
+    }
+
+    void setMaxRetries(int maxRetries) {
+        this.maxRetries = Math.max(0, maxRetries);
+    }
+
+    /**
+     * リクエストを予約する。send は送信のたびに呼ばれる（再送時も新しい交換を作る）。
+     * 返した future を cancel すると、待機中ならキューから外れ、送信中なら HTTP 交換も中断する。
+     */
+    <T> CompletableFuture<HttpResponse<T>> submit(RequestPriority priority, int estimatedTokens,
+                                                  Supplier<CompletableFuture<HttpResponse<T>>> send) {
+        return submit(priority, estimatedTokens, send, () -> true);
+    }
+
+    /**
+     * retryable が false を返したら、再送できる失敗でも再送せずにそのまま失敗させる
+     * （ストリーミングで delta を渡し始めた後に再送すると、呼び出し側に同じ先頭部分が2回届くため）
+     */
+    <T> CompletableFuture<HttpResponse<T>> submit(RequestPriority priority, int estimatedTokens,
+                                                  Supplier<CompletableFuture<HttpResponse<T>>> send,
+                                                  BooleanSupplier retryable) {
+        Job<T> job;
+        synchronized (this) {
+            job = new Job<>(priority, seq++, Math.max(1, estimatedTokens), send, retryable);
+            queue.add(job);
+        }
+        job.result.whenComplete((r, e) -> {
+            if (job.result.isCancelled()) {
+                CompletableFuture<?> inFlight = job.inFlight;
+                if (inFlight != null) inFlight.cancel(true);
+                synchronized (this) {
+                    queue.remove(job);
+                }
+            }
+        });
+        drain();
+        return job.result;
+    }
+
+    /**
+     * 送れるだけ送り、送れなくなったらバケットが回復する時刻に起き直す
+     */
+    private void drain() {
+        while (true) {
+            Job<?> ready;
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                if (now < pausedUntil) {
+                    scheduleWakeup(pausedUntil - now);
+                    return;
+                }
+                Job<?> head = queue.peek();
+                while (head != null && head.result.isDone()) {
+                    queue.poll();
+                    head = queue.peek();
+                }
+                if (head == null) return;
+
+                // 1件で1分ぶんを超える見積もりでも永久に待たないよう上限で切る
+                double needTokens = Math.min(head.estimatedTokens, tokens.capacity);
+                long wait = Math.max(requests.millisUntil(1, now), tokens.millisUntil(needTokens, now));
+                if (wait > 0) {
+                    throttled.incrementAndGet();
+                    scheduleWakeup(wait);
+                    return;
+                }
+                requests.take(1, now);
+                tokens.take(needTokens, now);
+                ready = queue.poll();
+            }
+            start(ready);
+        }
+    }
+
+    private void scheduleWakeup(long delayMillis) {
+        long at = System.currentTimeMillis() + delayMillis;
+        if (wakeup != null && !wakeup.isDone() && wakeupAt <= at) return;
+        if (wakeup != null) wakeup.cancel(false);
+        wakeupAt = at;
+        wakeup = timer.schedule(this::drain, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    private <T> void start(Job<T> job) {
+        CompletableFuture<HttpResponse<T>> exchange;
+        try {
+            exchange = job.send.get();
+        } catch (Exception e) {
+            exchange = CompletableFuture.failedFuture(e);
+        }
+        job.inFlight = exchange;
+        if (job.result.isCancelled()) exchange.cancel(true);
+
+        exchange.whenComplete((response, error) -> {
+            job.inFlight = null;
+            if (job.result.isDone()) return;
+
+            if (error != null) {
+                Throwable cause = error instanceof CompletionException && error.getCause() != null
+                        ? error.getCause() : error;
+                if (cause instanceof IOException && job.attempt < maxRetries && job.retryable.getAsBoolean()) {
+                    retry(job, backoff(job.attempt), "I/O error: " + cause.getMessage());
+                } else {
+                    if (cause instanceof IOException && !job.retryable.getAsBoolean()) {
+                        log.warn("OpenAI request failed after partial response, not retrying: priority={} reason={}",
+                                job.priority, cause.getMessage());
+                    }
+                    job.result.completeExceptionally(cause);
+                }
+                return;
+            }
+
+            long retryAfter = observe(response.headers(), response.statusCode());
+            if (isRetryable(response.statusCode()) && job.attempt < maxRetries && job.retryable.getAsBoolean()) {
+                retry(job, retryAfter >= 0 ? retryAfter : backoff(job.attempt), "HTTP " + response.statusCode());
+                return;
+            }
+            job.result.complete(response);
+            drain();
+        });
+    }
+
+    private void retry(Job<?> job, long delayMillis, String reason) {
+        job.attempt++;
+        retried.incrementAndGet();
+        log.warn("OpenAI request retry: priority={} attempt={} delayMs={} reason={}",
+                job.priority, job.attempt, delayMillis, reason);
+        timer.schedule(() -> {
+            synchronized (this) {
+                if (!job.result.isDone()) queue.add(job);
+            }
+            drain();
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * ヘッダからレート制限の状態を取り込む。
+     * @return retry-after で指定された待ち時間（ミリ秒）。指定がなければ -1
+     */
+    private long observe(HttpHeaders headers, int status) {
+        long now = System.currentTimeMillis();
+        synchronized (this) {
+            headers.firstValue("x-ratelimit-limit-requests").map(RateLimitScheduler::parseLong)
+                    .ifPresent(v -> { if (v > 0) requests.setCapacity(v); });
+            headers.firstValue("x-ratelimit-limit-tokens").map(RateLimitScheduler::parseLong)
+                    .ifPresent(v -> { if (v > 0) tokens.setCapacity(v); });
+            headers.firstValue("x-ratelimit-remaining-requests").map(RateLimitScheduler::parseLong)
+                    .ifPresent(v -> { if (v >= 0) requests.clampTo(v, now); });
+            headers.firstValue("x-ratelimit-remaining-tokens").map(RateLimitScheduler::parseLong)
+                    .ifPresent(v -> { if (v >= 0) tokens.clampTo(v, now); });
+        }
+
+        long retryAfter = headers.firstValue("retry-after-ms").map(RateLimitScheduler::parseLong).orElse(-1L);
+        if (retryAfter < 0) {
+            retryAfter = headers.firstValue("retry-after")
+                    .map(v -> {
+                        long seconds = parseLong(v);
+                        return seconds < 0 ? -1 : seconds * 1000;
+                    })
+                    .orElse(-1L);
+        }
+        if (status == 429) {
+            long pause = retryAfter;
+            if (pause < 0) {
+                // retry-after がなければ、使い切った方のリセット時刻まで止める
+                pause = Math.max(
+                        headers.firstValue("x-ratelimit-reset-requests").map(RateLimitScheduler::parseDuration).orElse(0L),
+                        headers.firstValue("x-ratelimit-reset-tokens").map(RateLimitScheduler::parseDuration).orElse(0L));
+            }
+            synchronized (this) {
+                pausedUntil = Math.max(pausedUntil, now + pause);
+            }
+            log.warn("OpenAI rate limited: pauseMs={}", pause);
+        }
+        return retryAfter;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+    }
+
+    // フルジッタの指数バックオフ
+    private static long backoff(int attempt) {
+        long cap = Math.min(MAX_BACKOFF_MILLIS, BASE_BACKOFF_MILLIS << Math.min(attempt, 16));
+        return ThreadLocalRandom.current().nextLong(cap / 2, cap + 1);
+    }
+
+    private static long parseLong(String value) {
+        try {
+            return (long) Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // "1s", "6m0s", "20ms" 形式の期間をミリ秒に
+    static long parseDuration(String value) {
+        Matcher m = DURATION.matcher(value);
+        double millis = 0;
+        while (m.find()) {
+            double n = Double.parseDouble(m.group(1));
+            switch (m.group(2)) {
+                case "ms" -> millis += n;
+                case "s" -> millis += n * 1000;
+                case "m" -> millis += n * 60_000;
+                case "h" -> millis += n * 3_600_000;
+                default -> { }
+            }
+        }
+        return (long) Math.ceil(millis);
+    }
+
+    synchronized int queueDepth() {
+        return queue.size();
+    }
+
+    // バケット不足で送信を待たせた回数
+    long throttledCount() {
+        return throttled.get();
+    }
+
+    long retryCount() {
+        return retried.get();
+    }
+
+    /**
+     * 1分あたり capacity を連続的に補充するトークンバケット
+     */
+    private static final class Bucket {
+        double capacity;
+        double available;
+        long refilledAt = System.currentTimeMillis();
+
+        Bucket(double capacity) {
+            this.capacity = capacity;
+            this.available = capacity;
+        }
+
+        void setCapacity(double capacity) {
+            this.capacity = capacity;
+            this.available = Math.min(available, capacity);
+        }
+
+        void refill(long now) {
+            available = Math.min(capacity, available + (now - refilledAt) * capacity / 60_000.0);
+            refilledAt = now;
+        }
+
+        long millisUntil(double amount, long now) {
+            refill(now);
+            if (available >= amount) return 0;
+            return (long) Math.ceil((amount - available) * 60_000.0 / capacity);
+        }
+
+        void take(double amount, long now) {
+            refill(now);
+            available -= amount;
+        }
+
+        // サーバー側の残量の方が少なければそちらに合わせる
+        void clampTo(double remaining, long now) {
+            refill(now);
+            available = Math.min(available, remaining);
+        }
+    }
+
+    private static final class Job<T> implements Comparable<Job<?>> {
+        final RequestPriority priority;
+        final long seq;
+        final int estimatedTokens;
+        final Supplier<CompletableFuture<HttpResponse<T>>> send;
+        final BooleanSupplier retryable;
+        final CompletableFuture<HttpResponse<T>> result = new CompletableFuture<>();
+        volatile CompletableFuture<HttpResponse<T>> inFlight;
+        int attempt;
+
+        Job(RequestPriority priority, long seq, int estimatedTokens,
+            Supplier<CompletableFuture<HttpResponse<T>>> send, BooleanSupplier retryable) {
+            this.priority = priority;
+            this.seq = seq;
+            this.estimatedTokens = estimatedTokens;
+            this.send = send;
+            this.retryable = retryable;
+        }
+
+        // 優先度が同じなら先着順（再送も元の順番を保つ）
+        @Override
+        public int compareTo(Job<?> o) {
+            int c = priority.compareTo(o.priority);
+            return c != 0 ? c : Long.compare(seq, o.seq);
+        }
+    }
+}
@@ -3,18 +3,14 @@ package com.example.service;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import java.util.List;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
-import com.fasterxml.jackson.annotation.JsonProperty;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ReportResult {
     private String summary;
-    @JsonProperty("graph_items")
-    private List<String> graphItems;
     private List<String> insights;
     private List<String> recommendations;
 
     public String getSummary() { return summary; }
-    public List<String> getGraphItems() { return graphItems; }
     public List<String> getInsights() { return insights; }
     public List<String> getRecommendations() { return recommendations; }
 
@@ -0,0 +1,13 @@
+package com.example.service;
+
+/**
+ * OpenAI 呼び出しの優先度。レート制限に当たりそうなときは上から順に送る。
+ */
+public enum RequestPriority {
+    /** Slack のメンションへの回答など、ユーザーが待っているもの */
+    INTERACTIVE,
+    /** スレッド要約・レポート生成 */
+    SUMMARIZATION,
+    /** FAQ 取り込みなどのバックグラウンド処理 */
+    BACKGROUND
+}
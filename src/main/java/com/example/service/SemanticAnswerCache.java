@@ -0,0 +1,151 @@
+package com.example.service;
+
+import com.example.metrics.MetricsRegistry;
+import com.example.util.Chunk;
+import com.example.util.ContentHash;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 言い換えの質問に同じ回答を返すための意味的キャッシュ。
+ * 「検索で同じチャンク集合が取れた」かつ「質問 Embedding のコサイン類似度が閾値以上」のときにヒットとする。
+ * FaqIngestor がチャンクを書き換えたら、そのドキュメントを参照しているエントリを捨てる。
+ */
+public class SemanticAnswerCache {
+    private final double threshold;
+    private final int maxEntries;
+
+    // 挿入順（= 古い順）。上限を超えたら先頭から捨てる
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>();
+    private long nextId;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong belowThreshold = new AtomicLong();
+    private final AtomicLong invalidated = new AtomicLong();
+
+    public SemanticAnswerCache(double threshold, int maxEntries) {
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0");
+        this.threshold = threshold;
+        this.maxEntries = maxEntries;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.counter("cache_hits_total", "Cache hits", hits::get, "cache", "answer");
+        metrics.counter("cache_misses_total", "Cache misses", misses::get, "cache", "answer");
+        metrics.counter("cache_below_threshold_total",
+                "Cache misses where the same chunks were cached but question similarity was below the threshold",
+                belowThreshold::get, "cache", "answer");
+        metrics.counter("cache_invalidations_total", "Cache entries dropped because the source changed",
+                invalidated::get, "cache", "answer");
+        metrics.gauge("cache_entries", "Current number of cache entries", this::size, "cache", "answer");
+    }
+
+    /**
+     * @return キャッシュ済みの回答。なければ null
+     */
+    public String lookup(float[] questionEmbedding, List<Chunk> chunks) {
+        String key = chunkSetKey(chunks);
+        synchronized (entries) {
+            boolean sameChunks = false;
+            for (Entry e : entries.values()) {
+                if (!e.chunkSetKey.equals(key)) continue;
+                sameChunks = true;
+                if (cosine(questionEmbedding, e.questionEmbedding) >= threshold) {
+                    hits.incrementAndGet();
+                    return e.answer;
+                }
+            }
+            if (sameChunks) belowThreshold.incrementAndGet();
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    public void put(float[] questionEmbedding, List<Chunk> chunks, String answer) {
+        Set<String> docIds = new HashSet<>();
+        for (Chunk c : chunks) docIds.add(c.docId());
+        Entry entry = new Entry(chunkSetKey(chunks), docIds, questionEmbedding, answer);
+
+        synchronized (entries) {
+            entries.put(nextId++, entry);
+            if (entries.size() > maxEntries) {
+                Iterator<Long> it = entries.keySet().iterator();
+                it.next();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * 指定ドキュメントのチャンクを参照しているエントリを捨てる（FaqIngestor から呼ばれる）
+     */
+    public void invalidateDocuments(Collection<String> docIds) {
+        synchronized (entries) {
+            Iterator<Entry> it = entries.values().iterator();
+            while (it.hasNext()) {
+                Entry e = it.next();
+                for (String docId : docIds) {
+                    if (e.docIds.contains(docId)) {
+                        it.remove();
+                        invalidated.incrementAndGet();
+                        break;
+                    }
+                }
+            }
+        }
+    }
+
+    // 取得したチャンク集合を順序に依存しないキーにする
+    private static String chunkSetKey(List<Chunk> chunks) {
+        TreeSet<String> hashes = new TreeSet<>();
+        for (Chunk c : chunks) {
+            hashes.add(ContentHash.ofChunk(c.docId(), c.section(), c.content()));
+        }
+        return String.join(",", hashes);
+    }
+
+    private static double cosine(float[] a, float[] b) {
+        if (a.length != b.length) return -1;
+        double dot = 0, na = 0, nb = 0;
+        for (int i = 0; i < a.length; i++) {
+            dot += a[i] * b[i];
+            na += a[i] * a[i];
+            nb += b[i] * b[i];
+        }
+        return na == 0 || nb == 0 ? -1 : dot / Math.sqrt(na * nb);
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    // 同じチャンク集合だったが類似度が閾値に届かずミスになった回数（閾値調整の目安）
+    public long belowThresholdCount() {
+        return belowThreshold.get();
+    }
+
+    // FAQ 更新で無効化されたエントリ数
+    public long invalidatedCount() {
+        return invalidated.get();
+    }
+
+    private record Entry(String chunkSetKey, Set<String> docIds, float[] questionEmbedding, String answer) {
+    }
+}
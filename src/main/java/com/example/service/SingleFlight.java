@@ -0,0 +1,138 @@
+package com.example.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * 同じキーの呼び出しが実行中なら、新しく実行せずにその結果を共有する（single-flight）。
+ * 呼び出し側にはそれぞれ別の future を返し、成功も失敗も全員に同じ結果を渡す。
+ * 待っている future がすべて結果を待たずに終わったら（cancel など）、共有の呼び出しも cancel する。
+ * ストリーミングの場合、途中から合流した呼び出し側にはそれまでの delta をまとめて1回で渡す。
+ */
+class SingleFlight<T> {
+    private final Map<String, Call<T>> calls = new HashMap<>();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    CompletableFuture<T> execute(String key, Function<Consumer<String>, CompletableFuture<T>> call) {
+        return execute(key, null, call);
+    }
+
+    /**
+     * @param onDelta この呼び出し側が受け取る delta（不要なら null）
+     * @param call    実行中の呼び出しがないときだけ呼ばれる。渡された Consumer に delta を流すと全員に配られる
+     */
+    CompletableFuture<T> execute(String key, Consumer<String> onDelta,
+                                 Function<Consumer<String>, CompletableFuture<T>> call) {
+        Call<T> flight;
+        CompletableFuture<T> waiter = new CompletableFuture<>();
+        boolean leader = false;
+        synchronized (this) {
+            flight = calls.get(key);
+            if (flight == null) {
+                flight = new Call<>();
+                calls.put(key, flight);
+                leader = true;
+            } else {
+                coalesced.incrementAndGet();
+            }
+            flight.join(waiter, onDelta);
+        }
+
+        Call<T> f = flight;
+        waiter.whenComplete((r, e) -> {
+            boolean last;
+            synchronized (this) {
+                last = f.leave(waiter);
+                if (last) calls.remove(key, f);
+            }
+            if (last) {
+                // 誰も待っていないので共有の呼び出しを止める
+                CompletableFuture<T> shared = f.shared;
+                if (shared != null) shared.cancel(true);
+            }
+        });
+
+        if (leader) {
+            CompletableFuture<T> shared;
+            try {
+                shared = call.apply(f::broadcast);
+            } catch (Exception e) {
+                shared = CompletableFuture.failedFuture(e);
+            }
+            f.shared = shared;
+            if (f.abandoned()) shared.cancel(true);
+            shared.whenComplete((result, error) -> {
+                synchronized (this) {
+                    calls.remove(key, f);
+                }
+                f.complete(result, error);
+            });
+        }
+        return waiter;
+    }
+
+    // 実行中の呼び出しに相乗りした回数
+    long coalescedCount() {
+        return coalesced.get();
+    }
+
+    private static final class Call<T> {
+        // 待ち手 → delta の受け取り先（不要なら null）
+        final Map<CompletableFuture<T>, Consumer<String>> waiters = new LinkedHashMap<>();
+        final StringBuilder text = new StringBuilder();
+        volatile CompletableFuture<T> shared;
+        boolean done;
+
+        synchronized void join(CompletableFuture<T> waiter, Consumer<String> onDelta) {
+            waiters.put(waiter, onDelta);
+            if (onDelta != null && !text.isEmpty()) {
+                onDelta.accept(text.toString());
+            }
+        }
+
+        synchronized void broadcast(String delta) {
+            text.append(delta);
+            for (Consumer<String> l : waiters.values()) {
+                if (l != null) l.accept(delta);
+            }
+        }
+
+        /**
+         * 結果を受け取る前に待ち手が抜けた。
+         * @return 最後の待ち手が抜けたら true（結果を配った後は常に false）
+         */
+        synchronized boolean leave(CompletableFuture<T> waiter) {
+            waiters.remove(waiter);
+            return waiters.isEmpty() && !done;
+        }
+
+        synchronized boolean abandoned() {
+            return waiters.isEmpty();
+        }
+
+        void complete(T result, Throwable error) {
+            List<CompletableFuture<T>> targets;
+            synchronized (this) {
+                done = true;
+                targets = new ArrayList<>(waiters.keySet());
+            }
+            Throwable cause = error instanceof CompletionException && error.getCause() != null
+                    ? error.getCause() : error;
+            for (CompletableFuture<T> w : targets) {
+                if (cause != null) {
+                    w.completeExceptionally(cause);
+                } else {
+                    w.complete(result);
+                }
+            }
+        }
+    }
+}
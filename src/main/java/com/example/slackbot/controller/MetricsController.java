@@ -0,0 +1,17 @@
+package com.example.slackbot.controller;
+
+import com.example.metrics.MetricsRegistry;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+@Controller
+public class MetricsController {
+
+    // Prometheus のスクレイプ用（text format 0.0.4）
+    @GetMapping(value = "/metrics", produces = "text/plain; version=0.0.4; charset=utf-8")
+    @ResponseBody
+    public String metrics() {
+        return MetricsRegistry.global().scrape();
+    }
+}
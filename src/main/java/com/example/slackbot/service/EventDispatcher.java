@@ -0,0 +1,279 @@
+package com.example.slackbot.service;
+
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Slack イベントの重い処理（RAG / レポート / 要約）をワーカースレッドに逃がすディスパッチャ。
+ * 同時実行数とキュー長に上限を設け、ハンドラはすぐに ack を返せるようにする。
+ * 非同期タスクはスレッド数とは別の上限（maxInFlight）で同時に走る future の数を抑え、
+ * 上限に達したら待ち行列に積んで、先行タスクの完了時にそこから始める（ワーカーは待たせない）。
+ * イベント種別ごとにキュー待ち時間と実行時間を集計する。
+ */
+public class EventDispatcher {
+    private static final Logger log = LoggerFactory.getLogger(EventDispatcher.class);
+
+    private final ThreadPoolExecutor executor;
+    private final int queueCapacity;
+    // 非同期タスク（CompletableFuture を返すもの）の同時実行数の上限。スレッド数とは独立
+    private volatile int maxInFlight = 200;
+    // 上限待ちの非同期タスク。inFlightAsync と合わせて pending のロックで守る
+    private final Deque<AsyncTask> pending = new ArrayDeque<>();
+    private int inFlightAsync;
+    private final Map<String, Stats> statsByType = new ConcurrentHashMap<>();
+
+    public EventDispatcher(int concurrency, int queueCapacity) {
+        if (concurrency <= 0) throw new IllegalArgumentException("concurrency must be > 0");
+        if (queueCapacity <= 0) throw new IllegalArgumentException("queueCapacity must be > 0");
+
+        AtomicInteger seq = new AtomicInteger();
+        ThreadFactory factory = r -> {
+            Thread t = new Thread(r, "slack-event-" + seq.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+        // キューが溢れたら呼び出し側で拒否を扱う（AbortPolicy）
+        this.executor = new ThreadPoolExecutor(
+                concurrency, concurrency,
+                60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                factory,
+                new ThreadPoolExecutor.AbortPolicy());
+        this.executor.allowCoreThreadTimeOut(true);
+        this.queueCapacity = queueCapacity;
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.gauge("slack_dispatch_queue_depth", "Slack events waiting for a worker", this::queueDepth);
+        metrics.gauge("slack_dispatch_active", "Slack event workers currently running", this::activeCount);
+        metrics.gauge("slack_dispatch_in_flight_async", "Async Slack event tasks not yet completed",
+                this::inFlightAsyncCount);
+        metrics.gauge("slack_dispatch_pending_async", "Async Slack event tasks waiting for an in-flight slot",
+                this::pendingAsyncCount);
+        log.info("EventDispatcher initialized: concurrency={} queueCapacity={}", concurrency, queueCapacity);
+    }
+
+    public void setMaxInFlight(int maxInFlight) {
+        if (maxInFlight <= 0) throw new IllegalArgumentException("maxInFlight must be > 0");
+        this.maxInFlight = maxInFlight;
+        log.info("EventDispatcher maxInFlight={}", maxInFlight);
+    }
+
+    /**
+     * タスクを投入する。キューが満杯の場合は false を返す（タスクは実行されない）。
+     */
+    public boolean submit(String eventType, Runnable task) {
+        Stats stats = stats(eventType);
+        long enqueuedAt = System.nanoTime();
+        try {
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                long waitNanos = startedAt - enqueuedAt;
+                try {
+                    task.run();
+                } catch (Exception e) {
+                    stats.failed.increment();
+                    log.error("Event task failed: type={}", eventType, e);
+                } finally {
+                    long runNanos = System.nanoTime() - startedAt;
+                    stats.record(waitNanos, runNanos);
+                    log.info("Event done: type={} waitMs={} runMs={}",
+                            eventType, waitNanos / 1_000_000, runNanos / 1_000_000);
+                }
+            });
+            stats.submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            stats.rejected.increment();
+            log.warn("Event rejected (queue full): type={} queued={}", eventType, executor.getQueue().size());
+            return false;
+        }
+    }
+
+    /**
+     * CompletableFuture を返すタスクを投入する。ワーカーはタスクを開始したらすぐ次へ進み、
+     * 同時に走る future の数だけを maxInFlight で抑える。上限に達しているときは待ち行列に積み、
+     * 先行タスクが完了したときに始める。実行時間は future の完了までを測る。
+     * キュー（または待ち行列）が満杯の場合は false を返す（タスクは実行されない）。
+     */
+    public boolean submitAsync(String eventType, Supplier<? extends CompletionStage<?>> task) {
+        Stats stats = stats(eventType);
+        AsyncTask job = new AsyncTask(eventType, stats, task, System.nanoTime());
+        synchronized (pending) {
+            if (inFlightAsync >= maxInFlight) {
+                if (pending.size() >= queueCapacity) {
+                    stats.rejected.increment();
+                    log.warn("Event rejected (in-flight limit, pending full): type={} pending={}",
+                            eventType, pending.size());
+                    return false;
+                }
+                pending.addLast(job);
+                stats.submitted.increment();
+                return true;
+            }
+            inFlightAsync++;
+        }
+        if (!start(job)) {
+            stats.rejected.increment();
+            log.warn("Event rejected (queue full): type={} queued={}", eventType, executor.getQueue().size());
+            releaseSlot();
+            return false;
+        }
+        stats.submitted.increment();
+        return true;
+    }
+
+    // 枠を確保済みの非同期タスクをワーカーに渡す。ワーカーは task.get() だけを実行する
+    private boolean start(AsyncTask job) {
+        try {
+            executor.execute(() -> {
+                long startedAt = System.nanoTime();
+                long waitNanos = startedAt - job.enqueuedAt;
+                CompletionStage<?> stage;
+                try {
+                    stage = job.task.get();
+                } catch (Exception e) {
+                    stage = CompletableFuture.failedFuture(e);
+                }
+                stage.whenComplete((result, error) -> {
+                    if (error != null) {
+                        job.stats.failed.increment();
+                        log.error("Event task failed: type={}", job.eventType, error);
+                    }
+                    long runNanos = System.nanoTime() - startedAt;
+                    job.stats.record(waitNanos, runNanos);
+                    log.info("Event done: type={} waitMs={} runMs={}",
+                            job.eventType, waitNanos / 1_000_000, runNanos / 1_000_000);
+                    releaseSlot();
+                });
+            });
+            return true;
+        } catch (RejectedExecutionException e) {
+            return false;
+        }
+    }
+
+    // 枠を返す。待ち行列にタスクがあれば、枠をそのまま引き継いで始める
+    private void releaseSlot() {
+        while (true) {
+            AsyncTask next;
+            synchronized (pending) {
+                next = pending.pollFirst();
+                if (next == null) {
+                    inFlightAsync--;
+                    return;
+                }
+            }
+            if (start(next)) return;
+            next.stats.rejected.increment();
+            log.warn("Event dropped (queue full): type={} queued={}", next.eventType, executor.getQueue().size());
+        }
+    }
+
+    // 初めての種別ならメトリクスにも登録する
+    private Stats stats(String eventType) {
+        return statsByType.computeIfAbsent(eventType, type -> {
+            Stats s = new Stats();
+            MetricsRegistry metrics = MetricsRegistry.global();
+            String help = "Slack events by outcome";
+            metrics.counter("slack_events_total", help, s.submitted::sum, "type", type, "outcome", "submitted");
+            metrics.counter("slack_events_total", help, s.rejected::sum, "type", type, "outcome", "rejected");
+            metrics.counter("slack_events_total", help, s.failed::sum, "type", type, "outcome", "failed");
+            s.waitLatency = metrics.histogram("slack_event_wait_seconds", "Time Slack events spent queued", "type", type);
+            s.runLatency = metrics.histogram("slack_event_run_seconds", "Time Slack events took to complete", "type", type);
+            return s;
+        });
+    }
+
+    public int queueDepth() {
+        return executor.getQueue().size();
+    }
+
+    public int activeCount() {
+        return executor.getActiveCount();
+    }
+
+    public int inFlightAsyncCount() {
+        synchronized (pending) {
+            return inFlightAsync;
+        }
+    }
+
+    public int pendingAsyncCount() {
+        synchronized (pending) {
+            return pending.size();
+        }
+    }
+
+    /**
+     * イベント種別ごとの集計値のスナップショット（種別名順）。
+     */
+    public Map<String, Snapshot> snapshot() {
+        Map<String, Snapshot> result = new TreeMap<>();
+        statsByType.forEach((type, s) -> result.put(type, s.snapshot()));
+        return result;
+    }
+
+    public void shutdown() {
+        executor.shutdown();
+    }
+
+    private record AsyncTask(String eventType, Stats stats,
+                             Supplier<? extends CompletionStage<?>> task, long enqueuedAt) {
+    }
+
+    private static final class Stats {
+        final LongAdder submitted = new LongAdder();
+        final LongAdder rejected = new LongAdder();
+        final LongAdder failed = new LongAdder();
+        final LongAdder completed = new LongAdder();
+        final LongAdder totalWaitNanos = new LongAdder();
+        final LongAdder totalRunNanos = new LongAdder();
+        final LongAccumulator maxWaitNanos = new LongAccumulator(Math::max, 0);
+        final LongAccumulator maxRunNanos = new LongAccumulator(Math::max, 0);
+        LatencyHistogram waitLatency;
+        LatencyHistogram runLatency;
+
+        void record(long waitNanos, long runNanos) {
+            waitLatency.recordNanos(waitNanos);
+            runLatency.recordNanos(runNanos);
+            completed.increment();
+            totalWaitNanos.add(waitNanos);
+            totalRunNanos.add(runNanos);
+            maxWaitNanos.accumulate(waitNanos);
+            maxRunNanos.accumulate(runNanos);
+        }
+
+        Snapshot snapshot() {
+            long done = completed.sum();
+            return new Snapshot(
+                    submitted.sum(), rejected.sum(), failed.sum(), done,
+                    done == 0 ? 0 : totalWaitNanos.sum() / done / 1_000_000,
+                    maxWaitNanos.get() / 1_000_000,
+                    done == 0 ? 0 : totalRunNanos.sum() / done / 1_000_000,
+                    maxRunNanos.get() / 1_000_000);
+        }
+    }
+
+    public record Snapshot(long submitted, long rejected, long failed, long completed,
+                           long avgWaitMs, long maxWaitMs, long avgRunMs, long maxRunMs) {
+    }
+}
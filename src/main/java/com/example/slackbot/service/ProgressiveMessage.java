@@ -0,0 +1,128 @@
+package com.example.slackbot.service;
+
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
+import com.slack.api.methods.MethodsClient;
+import com.slack.api.methods.response.chat.ChatPostMessageResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 生成途中のテキストを Slack に少しずつ反映するメッセージ。
+ * 最初にプレースホルダを chat.postMessage で投稿し、その後は一定間隔ごとに
+ * 変化があったときだけ chat.update で書き換える（Slack のレート制限を考えて間引く）。
+ * scheduler は間隔を計るだけで、ブロックする chat.update は updater のスレッドで行う。
+ * 1つのメッセージの更新は同時に1本までにし、前の更新が終わっていない間隔や updater に空きのない間隔は飛ばす。
+ * 途中経過はキューに積まないので、最終テキストの書き換えが途中経過の後ろで待たされない。
+ */
+class ProgressiveMessage {
+    private static final Logger log = LoggerFactory.getLogger(ProgressiveMessage.class);
+    private static final String PLACEHOLDER = "…";
+    private static final LatencyHistogram UPDATE_LATENCY = MetricsRegistry.global().stage("slack.update");
+
+    private final MethodsClient client;
+    private final String channelId;
+    private final String threadTs;   // null ならチャンネル直下
+    private final String prefix;
+    private final StringBuilder text = new StringBuilder();
+
+    private String ts;
+    private volatile int lastSentLength = -1;
+    private volatile boolean finished;
+    private final AtomicBoolean updating = new AtomicBoolean();
+    private ThreadPoolExecutor updater;
+    private ScheduledFuture<?> ticker;
+
+    ProgressiveMessage(MethodsClient client, String channelId, String threadTs, String prefix) {
+        this.client = client;
+        this.channelId = channelId;
+        this.threadTs = threadTs;
+        this.prefix = prefix;
+    }
+
+    /**
+     * プレースホルダを投稿し、intervalMillis ごとの更新を始める
+     */
+    void start(ScheduledExecutorService scheduler, ThreadPoolExecutor updater, long intervalMillis) throws Exception {
+        ChatPostMessageResponse res = client.chatPostMessage(r -> r
+                .channel(channelId)
+                .threadTs(threadTs)
+                .text(prefix + PLACEHOLDER));
+        if (!res.isOk()) {
+            throw new IllegalStateException("chat.postMessage failed: " + res.getError());
+        }
+        this.ts = res.getTs();
+        this.updater = updater;
+        this.ticker = scheduler.scheduleWithFixedDelay(this::tick, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void append(String delta) {
+        synchronized (text) {
+            text.append(delta);
+        }
+    }
+
+    /**
+     * 更新を止めて最終テキストで書き換える。書き換えは updater のスレッドで行い、呼び出し元は待たせない
+     * （実行中の途中経過の更新があれば、その後に書き換える）
+     */
+    CompletableFuture<Void> finish(String finalText) {
+        finished = true;
+        if (ticker == null) return CompletableFuture.completedFuture(null);
+        ticker.cancel(false);
+        return CompletableFuture.runAsync(() -> update(finalText, -1), updater);
+    }
+
+    // scheduler のスレッドで呼ばれる。前の更新がまだ終わっていないか、updater が埋まっていればこの回は送らない
+    private void tick() {
+        if (finished || updater.getActiveCount() >= updater.getMaximumPoolSize() || !updater.getQueue().isEmpty()) return;
+        if (!updating.compareAndSet(false, true)) return;
+        try {
+            updater.execute(() -> {
+                try {
+                    flush();
+                } finally {
+                    updating.set(false);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            updating.set(false);
+        }
+    }
+
+    private void flush() {
+        String current;
+        synchronized (text) {
+            if (text.length() == lastSentLength) return;
+            current = text.toString();
+        }
+        update(current + PLACEHOLDER, current.length());
+    }
+
+    // sentLength: 送った時点のテキスト長（次回の変化判定用）。同じメッセージへの chat.update は直列にする
+    private synchronized void update(String body, int sentLength) {
+        if (ts == null) return;
+        // finish 後に遅れて来た途中経過で最終テキストを上書きしない
+        if (finished && sentLength != -1) return;
+        long start = System.nanoTime();
+        try {
+            var res = client.chatUpdate(r -> r.channel(channelId).ts(ts).text(prefix + body));
+            UPDATE_LATENCY.since(start);
+            if (!res.isOk()) {
+                log.warn("chat.update failed: {}", res.getError());
+                return;
+            }
+            lastSentLength = sentLength;
+        } catch (Exception e) {
+            log.warn("chat.update failed", e);
+        }
+    }
+}
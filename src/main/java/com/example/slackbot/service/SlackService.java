@@ -1,20 +1,46 @@
 package com.example.slackbot.service;
 
 import com.slack.api.bolt.App;
+import com.slack.api.bolt.context.Context;
+import com.slack.api.bolt.context.SayUtility;
+import com.slack.api.bolt.context.builtin.EventContext;
+import com.slack.api.bolt.context.builtin.MessageShortcutContext;
+import com.slack.api.bolt.request.builtin.MessageShortcutRequest;
 import com.slack.api.bolt.socket_mode.SocketModeApp;
+import com.slack.api.bolt.util.BuilderConfigurator;
 import com.slack.api.model.event.AppMentionEvent;
+import com.slack.api.methods.MethodsClient;
+import com.slack.api.methods.request.chat.ChatPostMessageRequest;
 import com.slack.api.methods.response.conversations.ConversationsRepliesResponse;
+import com.example.metrics.LatencyHistogram;
+import com.example.metrics.MetricsRegistry;
 import com.example.service.RagService;
+import com.example.service.RequestPriority;
 import com.example.service.OpenAiClient;
 import com.example.service.ReportResult;
 import com.example.rag.ThreadClusterer;
+import com.example.report.ChartRenderer;
+import com.example.report.CsvAggregator;
+import com.example.report.CsvSummary;
+import com.example.report.ReportCache;
+import com.example.report.ReportPeriod;
+import com.example.slackbot.util.EventDeduplicator;
+import com.example.util.Futures;
 import com.slack.api.model.Message;
 import java.util.List;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.Executors;
-import java.nio.file.Files;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.nio.file.Path;
+import java.time.LocalDate;
 
 /*--- デバッグ ---*/
 import org.slf4j.Logger;
@@ -24,94 +50,127 @@ public class SlackService {
     /*--- デバッグ ---*/
     private static final Logger log = LoggerFactory.getLogger(SlackService.class);
 
+    private static final long RAG_TIMEOUT_SECONDS = 60;
+    private static final long SUMMARY_TIMEOUT_SECONDS = 120;
+    private static final long REPORT_TIMEOUT_SECONDS = 180;
+    private static final int REPLIES_PAGE_SIZE = 200;
+    private static final int STREAM_UPDATE_THREADS = 8;
+
+    private static final MetricsRegistry metrics = MetricsRegistry.global();
+    private static final LatencyHistogram MENTION_LATENCY = metrics.stage("slack.mention");
+    private static final LatencyHistogram SUMMARIZE_LATENCY = metrics.stage("slack.summarize");
+    private static final LatencyHistogram REPLIES_LATENCY = metrics.stage("slack.conversations_replies");
+    private static final LatencyHistogram REPORT_LATENCY = metrics.stage("slack.report");
+    private static final LatencyHistogram AGGREGATE_LATENCY = metrics.stage("slack.report.aggregate_csv");
+    private static final LatencyHistogram GENERATE_LATENCY = metrics.stage("slack.report.generate");
+    private static final LatencyHistogram RENDER_LATENCY = metrics.stage("slack.report.render_chart");
+    private static final LatencyHistogram UPLOAD_LATENCY = metrics.stage("slack.report.upload");
+    private static final LatencyHistogram POST_LATENCY = metrics.stage("slack.post");
+
     private final String appToken;   // App Token (xapp-...)
     private final RagService ragService;
     private final OpenAiClient openAiClient;
-    private final Set<String> processedEvents = ConcurrentHashMap.newKeySet();
-
-    public SlackService(String appToken, RagService ragService, OpenAiClient openAiClient) {
+    private final EventDispatcher dispatcher;
+    private final EventDeduplicator processedEvents;
+    private ThreadCache threadCache;
+    private String reportBasePath = System.getenv("REPORT_CSV_PATH");
+    private final ChartRenderer chartRenderer = new ChartRenderer();
+    private CsvAggregator csvAggregator = new CsvAggregator(60, 10_000);
+    private ReportCache reportCache;
+    private boolean streamingEnabled = true;
+    private long streamUpdateIntervalMillis = 800;
+    // ストリーミング中の更新間隔を計るだけのスレッド（chat.update 自体は streamUpdater で行う）
+    private final ScheduledExecutorService streamScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+        Thread t = new Thread(r, "slack-stream-tick");
+        t.setDaemon(true);
+        return t;
+    });
+    // chat.update を行うスレッド（途中経過は空きがあるときだけ送るので、最終テキストの書き換えは途中経過の後ろで待たない）
+    private final AtomicInteger streamThreadCount = new AtomicInteger();
+    private final ThreadPoolExecutor streamUpdater = new ThreadPoolExecutor(
+            STREAM_UPDATE_THREADS, STREAM_UPDATE_THREADS, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), r -> {
+        Thread t = new Thread(r, "slack-stream-update-" + streamThreadCount.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+    });
+
+    public SlackService(String appToken, RagService ragService, OpenAiClient openAiClient,
+                        EventDispatcher dispatcher, EventDeduplicator processedEvents) {
         this.appToken = appToken;
         this.ragService = ragService;
         this.openAiClient = openAiClient;
+        this.dispatcher = dispatcher;
+        this.processedEvents = processedEvents;
         log.info("SlackService initialized with appToken={}", appToken != null ? "SET" : "NULL");
     }
 
-    public void start() throws Exception {
-        App app = new App();
-
-        // メンションイベント
-        app.event(AppMentionEvent.class, (payload, ctx) -> {
-            String eventTs = payload.getEvent().getTs();
-            if (processedEvents.contains(eventTs)) {
-                log.info("Skip duplicate event: {}", eventTs);
-                return ctx.ack();
-            }
-            processedEvents.add(eventTs);
-
-            String userMessage = payload.getEvent().getText();
-            String userId = payload.getEvent().getUser();
-            String channelId = payload.getEvent().getChannel();
-            log.info("Received AppMentionEvent: userId={} text={}", userId, userMessage);
-
-            // レポート生成コマンド判定
-            if (isReportCommand(userMessage)) {
-                ReportCommand command = parseReportCommand(userMessage);
-                log.info("Detected report command: {}", command);
-
-                // ★ レポート生成処理を呼ぶ
-                ctx.say("<@" + userId + "> レポート生成を開始します…\n"
-                        + "種類: " + command.getReportType() + "\n"
-                        + "期間: " + command.getPeriod());
-
-                // ★ CSV を読み込む（初号機は sales.csv 固定）
-                String basePath = System.getenv("REPORT_CSV_PATH");
-                if (basePath == null) {
-                    ctx.say("環境変数 REPORT_CSV_PATH が設定されていません。");
-                    return ctx.ack();
-                }
+    // 回答・要約をストリーミングで少しずつ表示するか（Springの<property>で注入される）
+    public void setStreamingEnabled(boolean streamingEnabled) {
+        this.streamingEnabled = streamingEnabled;
+    }
 
-                String csvPath = basePath + "/sales.csv";
-                log.info("Loading CSV from: {}", csvPath);
+    // ストリーミング中に chat.update する間隔（ミリ秒）
+    public void setStreamUpdateIntervalMillis(long streamUpdateIntervalMillis) {
+        this.streamUpdateIntervalMillis = Math.max(200, streamUpdateIntervalMillis);
+    }
 
-                String csvData = Files.readString(Path.of(csvPath));
+    // スレッド要約のメッセージ Embedding・要約のキャッシュ（未設定なら毎回すべて取り直す）
+    public void setThreadCache(ThreadCache threadCache) {
+        this.threadCache = threadCache;
+    }
 
-                // ★ OpenAI にレポート生成を依頼
-                ReportResult result = openAiClient.generateReport(
-                        command.getReportType(),
-                        command.getPeriod(),
-                        csvData
-                );
-                log.info("OpenAI report result: {}", result.getSummary());
+    // レポートの CSV を置くディレクトリ（既定は環境変数 REPORT_CSV_PATH）
+    public void setReportBasePath(String reportBasePath) {
+        this.reportBasePath = reportBasePath;
+    }
 
-                // ★ Python を実行してグラフ生成
-                String outputPath = basePath + "/output.png";
-                int exit = runPythonGraph(csvPath, outputPath);
+    public void setCsvAggregator(CsvAggregator csvAggregator) {
+        this.csvAggregator = csvAggregator;
+    }
 
-                if (exit != 0) {
-                    ctx.say("Python グラフ生成中にエラーが発生しました。");
-                    return ctx.ack();
-                }
+    // 同じ種別・期間・CSV のレポートを作り直さずに返すキャッシュ（未設定なら毎回作る）
+    public void setReportCache(ReportCache reportCache) {
+        this.reportCache = reportCache;
+    }
 
-                // ★ Slack に PNG をアップロード
-                var uploadResponse = ctx.client().filesUploadV2(r -> r
-                        .channel(channelId)
-                        .file(new java.io.File(outputPath))
-                        .filename("report.png")
-                        .initialComment(result.getSummary()) // ← OpenAI の summary を本文として添付
-                );
+    public void start() throws Exception {
+        App app = new App();
+        registerHandlers(app);
 
-                // エラーチェック
-                if (!uploadResponse.isOk()) {
-                    log.error("Slack upload error: {}", uploadResponse.getError());
-                    ctx.say("Slack への画像アップロードに失敗しました。");
-                }
+        SocketModeApp socketModeApp = new SocketModeApp(appToken, app);
+        socketModeApp.start();
+        log.info("SocketModeApp started successfully");
+    }
 
+    /**
+     * メンション・ショートカットのハンドラを登録する（負荷試験ではスタブの Slack に向けた App に登録する）
+     */
+    public void registerHandlers(App app) {
+        // メンションイベント（重い処理はディスパッチャに逃がして即ACK）
+        app.event(AppMentionEvent.class, (payload, ctx) -> {
+            String eventTs = payload.getEvent().getTs();
+            if (!processedEvents.markIfAbsent(eventTs)) {
+                log.info("Skip duplicate event: {} (dedup size={} hits={} evictions={})", eventTs,
+                        processedEvents.size(), processedEvents.hitCount(), processedEvents.evictionCount());
                 return ctx.ack();
             }
 
-            String answer = ragService.answer(userMessage);
-            ctx.say("<@" + userId + "> さん " + answer);
-            log.info("RAG answer={}", answer);
+            AppMentionEvent event = payload.getEvent();
+            boolean accepted;
+            if (isReportCommand(event.getText())) {
+                accepted = dispatcher.submitAsync("app_mention:report", () -> {
+                    long start = System.nanoTime();
+                    return REPORT_LATENCY.time(handleReport(event, ctx), start);
+                });
+            } else {
+                accepted = dispatcher.submitAsync("app_mention:rag", () -> {
+                    long start = System.nanoTime();
+                    return MENTION_LATENCY.time(answerMention(event, ctx), start);
+                });
+            }
+            if (!accepted) {
+                ctx.say("<@" + event.getUser() + "> ただいま混み合っています。しばらくしてから再度お試しください。");
+            }
 
             return ctx.ack();
         });
@@ -120,57 +179,340 @@ public class SlackService {
         app.messageShortcut("summarize_thread", (req, ctx) -> {
             ctx.ack(); // 即ACK
 
-            Executors.newSingleThreadExecutor().submit(() -> {
-                try {
-                    Message msg = req.getPayload().getMessage();
-                    String channelId = req.getPayload().getChannel().getId();
-                    String threadTs = msg.getTs();
-                    log.info("Shortcut 'summarize_thread' triggered: channelId={} threadTs={}", channelId, threadTs);
-
-                    if (threadTs == null) {
-                        log.warn("threadTs is null, cannot fetch replies");
-                        ctx.say("親メッセージのTSが取得できませんでした。");
-                        return;
+            boolean accepted = dispatcher.submitAsync("summarize_thread", () -> {
+                long start = System.nanoTime();
+                return SUMMARIZE_LATENCY.time(summarizeThread(req, ctx), start);
+            });
+            if (!accepted) {
+                ctx.respond("ただいま混み合っています。しばらくしてから再度お試しください。");
+            }
+
+            return ctx.ack();
+        });
+    }
+
+    /**
+     * RAG 回答: Embedding → 検索 → 回答生成 → 投稿 をスレッドを待たせずにつなぐ
+     */
+    private CompletableFuture<Void> answerMention(AppMentionEvent event, EventContext ctx) {
+        String userMessage = event.getText();
+        String userId = event.getUser();
+        log.info("Received AppMentionEvent: userId={} text={}", userId, userMessage);
+
+        if (streamingEnabled) {
+            return streamReply(ctx.client(), event.getChannel(), null, "<@" + userId + "> さん ",
+                    onDelta -> ragService.answerStreamAsync(userMessage, onDelta),
+                    RAG_TIMEOUT_SECONDS, "処理中にエラーが発生しました。");
+        }
+
+        return cancelOnTimeout(ragService.answerAsync(userMessage), RAG_TIMEOUT_SECONDS)
+                .thenAccept(answer -> {
+                    say(ctx, "<@" + userId + "> さん " + answer);
+                    log.info("RAG answer={}", answer);
+                })
+                .whenComplete((v, e) -> {
+                    if (e != null) {
+                        error("app_mention");
+                        log.error("Error during app_mention processing", e);
+                        say(ctx, "処理中にエラーが発生しました。");
                     }
+                });
+    }
 
-                    ConversationsRepliesResponse replies = ctx.client().conversationsReplies(r -> r
-                            .channel(channelId)
-                            .ts(threadTs)
-                    );
-                    log.info("Fetched {} messages from thread", replies.getMessages().size());
+    /**
+     * スレッド要約: 返信取得 → Embedding → クラスタリング → 要約 → 投稿
+     */
+    private CompletableFuture<Void> summarizeThread(MessageShortcutRequest req, MessageShortcutContext ctx) {
+        Message msg = req.getPayload().getMessage();
+        String channelId = req.getPayload().getChannel().getId();
+        String threadTs = msg.getTs();
+        log.info("Shortcut 'summarize_thread' triggered: channelId={} threadTs={}", channelId, threadTs);
+
+        if (threadTs == null) {
+            log.warn("threadTs is null, cannot fetch replies");
+            say(ctx, "親メッセージのTSが取得できませんでした。");
+            return CompletableFuture.completedFuture(null);
+        }
 
-                    List<String> messages = replies.getMessages().stream()
-                            .map(m -> m.getText())
-                            .toList();
-                    log.info("Extracted {} text messages", messages.size());
+        // 全ページを読みながら、ページごとに未キャッシュのメッセージの Embedding を始める
+        ThreadEmbeddings thread = new ThreadEmbeddings(channelId, openAiClient, threadCache);
+        try {
+            String cursor = null;
+            int pages = 0;
+            do {
+                String pageCursor = cursor;
+                long repliesStart = System.nanoTime();
+                ConversationsRepliesResponse replies = ctx.client().conversationsReplies(r -> r
+                        .channel(channelId)
+                        .ts(threadTs)
+                        .limit(REPLIES_PAGE_SIZE)
+                        .cursor(pageCursor)
+                );
+                REPLIES_LATENCY.since(repliesStart);
+                if (!replies.isOk()) {
+                    throw new IllegalStateException("conversations.replies failed: " + replies.getError());
+                }
+                thread.addPage(replies.getMessages());
+                pages++;
+                cursor = replies.getResponseMetadata() != null ? replies.getResponseMetadata().getNextCursor() : null;
+            } while (cursor != null && !cursor.isEmpty());
+            log.info("Fetched {} text messages in {} page(s), {} need embedding",
+                    thread.texts().size(), pages, thread.requestedCount());
+        } catch (Exception e) {
+            error("summarize_thread");
+            log.error("Error during summarize_thread processing", e);
+            say(ctx, "要約処理中にエラーが発生しました。");
+            return CompletableFuture.failedFuture(e);
+        }
 
-                    List<double[]> embeddings = openAiClient.embed(messages);
+        // 返信も編集も増えていなければ前回の要約をそのまま返す
+        String version = thread.version();
+        String cachedSummary = threadCache != null ? threadCache.summary(channelId, threadTs, version) : null;
+        if (cachedSummary != null) {
+            log.info("Summary cache hit: channelId={} threadTs={} version={}", channelId, threadTs, version);
+            say(ctx, r -> r.channel(channelId).threadTs(threadTs).text(cachedSummary));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        List<String> messages = thread.texts();
+        CompletableFuture<List<String>> representativesFuture = thread.embeddingsAsync()
+                .thenApply(embeddings -> {
                     log.info("Generated {} embeddings", embeddings.size());
 
                     ThreadClusterer clusterer = new ThreadClusterer();
                     List<String> representatives = clusterer.clusterAndExtractRepresentatives(embeddings, messages);
                     log.info("Extracted {} representative messages", representatives.size());
+                    return representatives;
+                });
+        Function<String, String> remember = summary -> {
+            if (threadCache != null && !isErrorText(summary)) {
+                threadCache.putSummary(channelId, threadTs, version, summary);
+            }
+            return summary;
+        };
+
+        if (streamingEnabled) {
+            return streamReply(ctx.client(), channelId, threadTs, "",
+                    onDelta -> {
+                        CompletableFuture<String> summary = Futures.thenCompose(representativesFuture,
+                                reps -> openAiClient.summarizeStreamAsync(reps, onDelta));
+                        return Futures.cancelUpstream(summary, summary.thenApply(remember));
+                    },
+                    SUMMARY_TIMEOUT_SECONDS, "要約処理中にエラーが発生しました。");
+        }
 
-                    String summary = openAiClient.summarize(representatives);
+        return cancelOnTimeout(Futures.thenCompose(representativesFuture, openAiClient::summarizeAsync), SUMMARY_TIMEOUT_SECONDS)
+                .thenApply(remember)
+                .thenAccept(summary -> {
                     log.info("Summary result: {}", summary);
+                    say(ctx, r -> r.channel(channelId).threadTs(threadTs).text(summary));
+                })
+                .whenComplete((v, e) -> {
+                    if (e != null) {
+                        error("summarize_thread");
+                        log.error("Error during summarize_thread processing", e);
+                        say(ctx, "要約処理中にエラーが発生しました。");
+                    }
+                });
+    }
 
-                    // ★ ctx.say() も try の中に入れる必要がある
-                    ctx.say(r -> r.channel(channelId).threadTs(threadTs).text(summary));
+    /**
+     * レポート: 集計 → { 生成（モデル） ‖ 描画 → グラフ投稿 } → 要約投稿。モデルの応答はワーカーで待たない
+     */
+    private CompletableFuture<Void> handleReport(AppMentionEvent event, EventContext ctx) {
+        CompletableFuture<Void> report;
+        try {
+            report = startReport(event, ctx);
+        } catch (Exception e) {
+            report = CompletableFuture.failedFuture(e);
+        }
+        return report.whenComplete((v, e) -> {
+            if (e != null) {
+                error("report");
+                log.error("Error during report processing", e);
+                say(ctx, "処理中にエラーが発生しました。");
+            }
+        });
+    }
 
-                } catch (Exception e) {
-                    log.error("Error during summarize_thread processing", e);
-                    try {
-                        ctx.say("要約処理中にエラーが発生しました。");
-                    } catch (Exception ignore) {}
-                }
-            });
+    // 同期で進められる段（集計・描画・グラフ投稿）まで済ませ、要約の投稿はモデルの応答につなぐ
+    private CompletableFuture<Void> startReport(AppMentionEvent event, EventContext ctx) throws Exception {
+        String userMessage = event.getText();
+        String userId = event.getUser();
+        String channelId = event.getChannel();
+        log.info("Received AppMentionEvent: userId={} text={}", userId, userMessage);
+
+        ReportCommand command = parseReportCommand(userMessage);
+        log.info("Detected report command: {}", command);
+
+        // ★ レポート生成処理を呼ぶ
+        ctx.say("<@" + userId + "> レポート生成を開始します…\n"
+                + "種類: " + command.getReportType() + "\n"
+                + "期間: " + command.getPeriod());
+
+        // ★ CSV を読み込む（初号機は sales.csv 固定）
+        String basePath = reportBasePath;
+        if (basePath == null) {
+            ctx.say("環境変数 REPORT_CSV_PATH が設定されていません。");
+            return CompletableFuture.completedFuture(null);
+        }
 
-            return ctx.ack();
+        String csvPath = basePath + "/sales.csv";
+        log.info("Loading CSV from: {}", csvPath);
+
+        Path csv = Path.of(csvPath);
+        ReportPeriod period = ReportPeriod.parse(command.getPeriod(), LocalDate.now());
+        String title = command.getReportType() + " レポート（" + command.getPeriod() + "）";
+
+        // ★ 同じ種別・期間で CSV も変わっていなければ、前回のレポートをそのまま返す
+        ReportCache.Key cacheKey = reportCache != null ? reportCache.key(command.getReportType(), period, csv) : null;
+        ReportCache.Entry cached = cacheKey != null ? reportCache.get(cacheKey) : null;
+        if (cached != null) {
+            log.info("Report cache hit: {}", cacheKey);
+            uploadChart(ctx, channelId, cached.chart(), title);
+            say(ctx, "<@" + userId + "> " + title + "\n" + cached.result().getSummary());
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // ★ 段の依存関係: aggregate → { generate（モデル） ‖ render → upload_chart } → post_summary
+        //   モデルの応答を要るのは要約の本文だけなので、グラフはモデルを待たずに描いて先に投稿する
+        StageTimings stages = new StageTimings();
+        CompletableFuture<ReportResult> request = null;
+        try {
+            // CSV はメモリマップして1パスで集計し、要約だけをモデルに渡す（行数が増えてもプロンプトの大きさは変わらない）
+            CsvSummary summary = stages.call("aggregate", AGGREGATE_LATENCY, () -> csvAggregator.aggregate(csv, period));
+            log.info("Aggregated CSV: rows={} rowsInPeriod={} points={}", summary.rows(), summary.rowsInPeriod(), summary.labels().size());
+
+            // ★ OpenAI にレポート生成を依頼（HTTP は非同期なので、待っている間にグラフを作って投稿する）
+            request = openAiClient.generateReportAsync(command.getReportType(), command.getPeriod(), summary.toPromptText());
+            CompletableFuture<ReportResult> generated = stages.track("generate", GENERATE_LATENCY,
+                    cancelOnTimeout(request, REPORT_TIMEOUT_SECONDS));
+
+            // ★ グラフはモデルを待たずに、依頼文（種別・「棒」「比較」など）をヒントに列と種類を選んで描く
+            byte[] png = stages.call("render", RENDER_LATENCY,
+                    () -> chartRenderer.render(summary.toChartData(), List.of(command.getReportType(), userMessage)));
+            stages.call("upload_chart", () -> uploadChart(ctx, channelId, png, title + " のグラフです。要約を作成しています…"));
+
+            return generated
+                    .thenAccept(result -> {
+                        log.info("OpenAI report result: {}", result.getSummary());
+                        try {
+                            stages.call("post_summary", () -> {
+                                say(ctx, "<@" + userId + "> " + title + "\n" + result.getSummary());
+                                return null;
+                            });
+                        } catch (Exception e) {
+                            throw new CompletionException(e);
+                        }
+                        if (cacheKey != null) reportCache.put(cacheKey, result, png);
+                    })
+                    .whenComplete((v, e) -> log.info("Report stages: {}", stages));
+        } catch (Exception e) {
+            // グラフの段の失敗で抜けるときは、走っているモデルへの依頼も止める
+            if (request != null) request.cancel(true);
+            log.info("Report stages: {}", stages);
+            throw e;
+        }
+    }
+
+    /**
+     * Slack に PNG をアップロード（ファイルを経由せずバイト列のまま送る）
+     */
+    private Void uploadChart(EventContext ctx, String channelId, byte[] png, String comment) throws Exception {
+        long uploadStart = System.nanoTime();
+        var uploadResponse = ctx.client().filesUploadV2(r -> r
+                .channel(channelId)
+                .fileData(png)
+                .filename("report.png")
+                .initialComment(comment)
+        );
+        UPLOAD_LATENCY.since(uploadStart);
+
+        // エラーチェック
+        if (!uploadResponse.isOk()) {
+            error("report");
+            log.error("Slack upload error: {}", uploadResponse.getError());
+            ctx.say("Slack への画像アップロードに失敗しました。");
+        }
+        return null;
+    }
+
+    /**
+     * プレースホルダを投稿してから生成を始め、届いたトークンを間引きながら chat.update で反映する
+     */
+    private CompletableFuture<Void> streamReply(MethodsClient client, String channelId, String threadTs, String prefix,
+                                                Function<Consumer<String>, CompletableFuture<String>> generate,
+                                                long timeoutSeconds, String errorText) {
+        ProgressiveMessage message = new ProgressiveMessage(client, channelId, threadTs, prefix);
+        try {
+            long postStart = System.nanoTime();
+            message.start(streamScheduler, streamUpdater, streamUpdateIntervalMillis);
+            POST_LATENCY.since(postStart);
+        } catch (Exception e) {
+            log.error("Failed to post placeholder message", e);
+            return CompletableFuture.failedFuture(e);
+        }
+
+        // 最後の chat.update は更新用のスレッドで行う（生成を完了させたスレッドで Slack を待たない）
+        return cancelOnTimeout(generate.apply(message::append), timeoutSeconds)
+                .handle((text, e) -> {
+                    if (e != null) {
+                        error("stream_reply");
+                        log.error("Error during streaming reply", e);
+                        return message.finish(errorText).thenRun(() -> {
+                            throw new CompletionException(e);
+                        });
+                    }
+                    log.info("Streamed reply: {}", text);
+                    return message.finish(text);
+                })
+                .thenCompose(finished -> finished);
+    }
+
+    /**
+     * timeoutSeconds で打ち切った future を返す。orTimeout は返した側を失敗させるだけなので、
+     * タイムアウトしたら source も cancel して HTTP 交換・ストリームを止める
+     */
+    private static <T> CompletableFuture<T> cancelOnTimeout(CompletableFuture<T> source, long timeoutSeconds) {
+        CompletableFuture<T> timed = source.copy().orTimeout(timeoutSeconds, TimeUnit.SECONDS);
+        timed.whenComplete((r, e) -> {
+            if (e instanceof TimeoutException) source.cancel(true);
         });
+        return timed;
+    }
 
-        SocketModeApp socketModeApp = new SocketModeApp(appToken, app);
-        socketModeApp.start();
-        log.info("SocketModeApp started successfully");
+    // 非同期チェーンの中から投稿する（Slack API の検査例外はログに落とす）
+    private void say(SayUtility ctx, String text) {
+        long start = System.nanoTime();
+        try {
+            ctx.say(text);
+        } catch (Exception e) {
+            error("say");
+            log.error("Slack say failed", e);
+        } finally {
+            POST_LATENCY.since(start);
+        }
+    }
+
+    private void say(Context ctx, BuilderConfigurator<ChatPostMessageRequest.ChatPostMessageRequestBuilder> request) {
+        long start = System.nanoTime();
+        try {
+            ctx.say(request);
+        } catch (Exception e) {
+            error("say");
+            log.error("Slack say failed", e);
+        } finally {
+            POST_LATENCY.since(start);
+        }
+    }
+
+    private static void error(String flow) {
+        metrics.counter("slack_errors_total", "Errors while handling Slack events", "flow", flow).increment();
+    }
+
+    // 失敗時に OpenAiClient が返す定型文はキャッシュしない
+    private static boolean isErrorText(String text) {
+        return text == null || text.startsWith("OpenAI APIエラー") || text.contains("エラーが発生しました");
     }
 
     private boolean isReportCommand(String text) {
@@ -207,43 +549,6 @@ public class SlackService {
 
         return new ReportCommand(reportType, period);
     }
-
-    private int runPythonGraph(String csvPath, String outputPath) {
-        try {
-            String pythonScript = System.getenv("PYTHON_SCRIPT_PATH");
-            if (pythonScript == null) {
-                log.error("環境変数 PYTHON_SCRIPT_PATH が設定されていません");
-                return -1;
-            }
-
-            ProcessBuilder pb = new ProcessBuilder(
-                    "C:\\Users\\gan01\\IdeaProjects\\JavaSlackAIBot\\venv\\Scripts\\python.exe",
-                    pythonScript,
-                    csvPath,
-                    outputPath
-            );
-
-            pb.redirectErrorStream(true);
-            Process process = pb.start();
-
-            // Python の標準出力をログに出す（デバッグ用）
-            try (var reader = new java.io.BufferedReader(
-                    new java.io.InputStreamReader(process.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    log.info("[Python] {}", line);
-                }
-            }
-
-            int exitCode = process.waitFor();
-            log.info("Python process finished with exit code {}", exitCode);
-            return exitCode;
-
-        } catch (Exception e) {
-            log.error("Python 実行中にエラーが発生しました", e);
-            return -1;
-        }
-    }
 }
 
 // 追加：レポートコマンド用の DTO
@@ -0,0 +1,75 @@
+package com.example.slackbot.service;
+
+import com.example.metrics.LatencyHistogram;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 1件の処理の中の各段の開始・終了時刻（処理の開始からの ms）を記録し、ログ用の1行にする。
+ * 並行して走る段は区間が重なって見える（例: "generate 15-1210ms, render 15-48ms"）。
+ */
+class StageTimings {
+    private record Stage(String name, long startNanos, long endNanos, boolean failed) {
+    }
+
+    private final long origin = System.nanoTime();
+    private final List<Stage> stages = new ArrayList<>();
+
+    <T> T call(String name, Callable<T> body) throws Exception {
+        return call(name, null, body);
+    }
+
+    /**
+     * 同期の段。histogram があれば所要時間も記録する。例外はそのまま投げる（失敗した段も記録する）
+     */
+    <T> T call(String name, LatencyHistogram histogram, Callable<T> body) throws Exception {
+        long start = System.nanoTime();
+        boolean failed = true;
+        try {
+            T value = body.call();
+            failed = false;
+            return value;
+        } finally {
+            record(name, histogram, start, failed);
+        }
+    }
+
+    /**
+     * 非同期の段。future が終わった時点を終了時刻にする
+     */
+    <T> CompletableFuture<T> track(String name, LatencyHistogram histogram, CompletableFuture<T> future) {
+        long start = System.nanoTime();
+        return future.whenComplete((v, e) -> record(name, histogram, start, e != null));
+    }
+
+    long totalMillis() {
+        return (System.nanoTime() - origin) / 1_000_000;
+    }
+
+    private void record(String name, LatencyHistogram histogram, long start, boolean failed) {
+        long end = System.nanoTime();
+        if (histogram != null) histogram.since(start);
+        synchronized (stages) {
+            stages.add(new Stage(name, start, end, failed));
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("total=").append(totalMillis()).append("ms");
+        synchronized (stages) {
+            List<Stage> sorted = new ArrayList<>(stages);
+            sorted.sort((a, b) -> Long.compare(a.startNanos(), b.startNanos()));
+            for (Stage s : sorted) {
+                sb.append(", ").append(s.name()).append(' ')
+                        .append((s.startNanos() - origin) / 1_000_000).append('-')
+                        .append((s.endNanos() - origin) / 1_000_000).append("ms");
+                if (s.failed()) sb.append(" (failed)");
+            }
+        }
+        return sb.toString();
+    }
+}
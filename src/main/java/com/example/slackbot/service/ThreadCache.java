@@ -0,0 +1,112 @@
+package com.example.slackbot.service;
+
+import com.example.metrics.MetricsRegistry;
+import com.slack.api.model.Message;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * スレッド要約用のキャッシュ（どちらも LRU）。
+ * メッセージの Embedding は (channel, ts, 編集 ts) をキーにし、編集されたメッセージだけ取り直す。
+ * 要約は (channel, スレッド ts, スレッドの版) をキーにし、返信も編集も増えていなければそのまま返す。
+ * ベクトルは float[] で保持してメモリを抑える（1536次元で1件約6KB）。
+ */
+public class ThreadCache {
+    private final LinkedHashMap<String, float[]> embeddings;
+    private final LinkedHashMap<String, String> summaries;
+
+    private final AtomicLong embeddingHits = new AtomicLong();
+    private final AtomicLong embeddingMisses = new AtomicLong();
+    private final AtomicLong summaryHits = new AtomicLong();
+    private final AtomicLong summaryMisses = new AtomicLong();
+
+    public ThreadCache(int maxMessages, int maxSummaries) {
+        if (maxMessages <= 0 || maxSummaries <= 0) throw new IllegalArgumentException("max entries must be > 0");
+        this.embeddings = lru(maxMessages);
+        this.summaries = lru(maxSummaries);
+
+        MetricsRegistry metrics = MetricsRegistry.global();
+        metrics.counter("cache_hits_total", "Cache hits", embeddingHits::get, "cache", "thread_embedding");
+        metrics.counter("cache_misses_total", "Cache misses", embeddingMisses::get, "cache", "thread_embedding");
+        metrics.gauge("cache_entries", "Current number of cache entries", this::embeddingCount, "cache", "thread_embedding");
+        metrics.counter("cache_hits_total", "Cache hits", summaryHits::get, "cache", "thread_summary");
+        metrics.counter("cache_misses_total", "Cache misses", summaryMisses::get, "cache", "thread_summary");
+        metrics.gauge("cache_entries", "Current number of cache entries", this::summaryCount, "cache", "thread_summary");
+    }
+
+    /**
+     * メッセージの Embedding。なければ null
+     */
+    public float[] embedding(String channel, Message message) {
+        float[] v;
+        synchronized (embeddings) {
+            v = embeddings.get(messageKey(channel, message));
+        }
+        (v != null ? embeddingHits : embeddingMisses).incrementAndGet();
+        return v;
+    }
+
+    public void putEmbedding(String channel, Message message, float[] vector) {
+        synchronized (embeddings) {
+            embeddings.put(messageKey(channel, message), vector);
+        }
+    }
+
+    /**
+     * 同じ版のスレッドの要約。なければ null
+     */
+    public String summary(String channel, String threadTs, String version) {
+        String s;
+        synchronized (summaries) {
+            s = summaries.get(channel + ":" + threadTs + ":" + version);
+        }
+        (s != null ? summaryHits : summaryMisses).incrementAndGet();
+        return s;
+    }
+
+    public void putSummary(String channel, String threadTs, String version, String summary) {
+        synchronized (summaries) {
+            summaries.put(channel + ":" + threadTs + ":" + version, summary);
+        }
+    }
+
+    public int embeddingCount() {
+        synchronized (embeddings) {
+            return embeddings.size();
+        }
+    }
+
+    public int summaryCount() {
+        synchronized (summaries) {
+            return summaries.size();
+        }
+    }
+
+    public long embeddingHitCount() {
+        return embeddingHits.get();
+    }
+
+    public long embeddingMissCount() {
+        return embeddingMisses.get();
+    }
+
+    public long summaryHitCount() {
+        return summaryHits.get();
+    }
+
+    private static String messageKey(String channel, Message message) {
+        String edited = message.getEdited() != null ? message.getEdited().getTs() : "";
+        return channel + ":" + message.getTs() + ":" + edited;
+    }
+
+    private static <V> LinkedHashMap<String, V> lru(int maxEntries) {
+        return new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+}
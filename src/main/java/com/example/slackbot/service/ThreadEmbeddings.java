@@ -0,0 +1,101 @@
+package com.example.slackbot.service;
+
+import com.example.repo.VectorCodec;
+import com.example.service.OpenAiClient;
+import com.example.service.RequestPriority;
+import com.slack.api.model.Message;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * conversations.replies のページを受け取るたびに、そのページの未キャッシュのメッセージだけ Embedding を始める。
+ * 全ページを読み終えたら {@link #embeddingsAsync()} で本文と同じ順の Embedding をまとめて受け取る。
+ * ページの追加は1スレッドから行う（要約はディスパッチャの1タスク内で読む）。
+ */
+class ThreadEmbeddings {
+    private final String channelId;
+    private final OpenAiClient openAiClient;
+    private final ThreadCache cache;   // null ならキャッシュなし
+
+    private final List<String> texts = new ArrayList<>();
+    private final List<double[]> vectors = new ArrayList<>();
+    private final List<CompletableFuture<Void>> pending = new ArrayList<>();
+    private String latestTs = "";
+    private String latestEditTs = "";
+    private int requested;
+
+    ThreadEmbeddings(String channelId, OpenAiClient openAiClient, ThreadCache cache) {
+        this.channelId = channelId;
+        this.openAiClient = openAiClient;
+        this.cache = cache;
+    }
+
+    void addPage(List<Message> messages) {
+        List<Message> missing = new ArrayList<>();
+        List<Integer> slots = new ArrayList<>();
+        synchronized (vectors) {
+            for (Message m : messages) {
+                if (m.getTs() != null && m.getTs().compareTo(latestTs) > 0) latestTs = m.getTs();
+                if (m.getEdited() != null && m.getEdited().getTs() != null
+                        && m.getEdited().getTs().compareTo(latestEditTs) > 0) {
+                    latestEditTs = m.getEdited().getTs();
+                }
+                // 本文のないメッセージ（ファイルのみ等）は Embeddings API に送れないので除く
+                if (m.getText() == null || m.getText().isBlank()) continue;
+
+                float[] cached = cache != null ? cache.embedding(channelId, m) : null;
+                texts.add(m.getText());
+                vectors.add(cached != null ? toDoubles(cached) : null);
+                if (cached == null) {
+                    missing.add(m);
+                    slots.add(vectors.size() - 1);
+                }
+            }
+        }
+        if (missing.isEmpty()) return;
+
+        requested += missing.size();
+        List<String> missingTexts = missing.stream().map(Message::getText).toList();
+        pending.add(openAiClient.embedAsync(missingTexts, RequestPriority.SUMMARIZATION).thenAccept(embeddings -> {
+            synchronized (vectors) {
+                for (int i = 0; i < missing.size(); i++) {
+                    double[] e = embeddings.get(i);
+                    vectors.set(slots.get(i), e);
+                    if (cache != null) cache.putEmbedding(channelId, missing.get(i), VectorCodec.toFloats(e));
+                }
+            }
+        }));
+    }
+
+    /**
+     * スレッドの版（返信数・最新返信 ts・最新編集 ts）。返信の追加や編集で変わる
+     */
+    String version() {
+        return texts.size() + ":" + latestTs + ":" + latestEditTs;
+    }
+
+    List<String> texts() {
+        return texts;
+    }
+
+    // Embeddings API に送ったメッセージ数（キャッシュから取れたものは含まない）
+    int requestedCount() {
+        return requested;
+    }
+
+    CompletableFuture<List<double[]>> embeddingsAsync() {
+        return CompletableFuture.allOf(pending.toArray(CompletableFuture[]::new)).thenApply(v -> {
+            synchronized (vectors) {
+                return List.copyOf(vectors);
+            }
+        });
+    }
+
+    private static double[] toDoubles(float[] v) {
+        double[] d = new double[v.length];
+        for (int i = 0; i < v.length; i++) d[i] = v[i];
+        return d;
+    }
+}
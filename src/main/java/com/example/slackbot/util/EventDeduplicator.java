@@ -0,0 +1,80 @@
+package com.example.slackbot.util;
+
+import com.example.metrics.MetricsRegistry;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Slack のリトライによる重複イベントを弾くための、上限付き・時間窓付きの既処理セット。
+ * 登録順に保持し、TTL を過ぎたものと上限を超えたものを古い順に捨てるので
+ * 長時間動かしてもメモリ使用量は一定に収まる。
+ */
+public class EventDeduplicator {
+    private final long ttlMillis;
+    private final int maxEntries;
+
+    // key -> 登録時刻（ミリ秒）。挿入順 = 時刻順
+    private final LinkedHashMap<String, Long> seen = new LinkedHashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public EventDeduplicator(long ttlMillis, int maxEntries) {
+        if (ttlMillis <= 0) throw new IllegalArgumentException("ttlMillis must be > 0");
+        if (maxEntries <= 0) throw new IllegalArgumentException("maxEntries must be > 0");
+        this.ttlMillis = ttlMillis;
+        this.maxEntries = maxEntries;
+
+        MetricsRegistry.global().counter("slack_duplicate_events_total",
+                "Slack event retries dropped as duplicates", hits::get);
+    }
+
+    /**
+     * 未処理なら登録して true、時間窓内に既に登録済みなら false を返す（判定と登録はアトミック）。
+     */
+    public boolean markIfAbsent(String key) {
+        return markIfAbsent(key, System.currentTimeMillis());
+    }
+
+    synchronized boolean markIfAbsent(String key, long nowMillis) {
+        evictExpired(nowMillis);
+        if (seen.containsKey(key)) {
+            hits.incrementAndGet();
+            return false;
+        }
+        seen.put(key, nowMillis);
+        if (seen.size() > maxEntries) {
+            Iterator<String> it = seen.keySet().iterator();
+            it.next();
+            it.remove();
+            evictions.incrementAndGet();
+        }
+        return true;
+    }
+
+    private void evictExpired(long nowMillis) {
+        Iterator<Map.Entry<String, Long>> it = seen.entrySet().iterator();
+        while (it.hasNext()) {
+            if (nowMillis - it.next().getValue() < ttlMillis) {
+                break;
+            }
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    public synchronized int size() {
+        return seen.size();
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,43 @@
+package com.example.test;
+
+import com.example.service.OpenAiClient;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+public class StreamTest {
+    public static void main(String[] args) throws Exception {
+        // ローカルの SSE スタブ（Chat Completions の stream=true を模したもの）
+        HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/v1/chat/completions", exchange -> {
+            exchange.getRequestBody().readAllBytes();
+            exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+            exchange.sendResponseHeaders(200, 0);
+            try (OutputStream out = exchange.getResponseBody()) {
+                for (String token : new String[]{"パスワードは", "設定画面の", "「再設定」から", "変更できます。"}) {
+                    String json = "{\"choices\":[{\"delta\":{\"content\":\"" + token + "\"}}]}";
+                    out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+                    out.flush();
+                    Thread.sleep(200);
+                }
+                out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        server.start();
+
+        OpenAiClient client = new OpenAiClient("dummy",
+                "http://localhost:" + server.getAddress().getPort() + "/v1");
+
+        long start = System.nanoTime();
+        String answer = client.chatStreamAsync("FAQ", "パスワードを忘れた場合どうすればいい？", delta ->
+                System.out.printf("+%dms delta=%s%n", (System.nanoTime() - start) / 1_000_000, delta)
+        ).join();
+        System.out.println("answer=" + answer);
+
+        server.stop(0);
+    }
+}
@@ -0,0 +1,52 @@
+package com.example.test;
+
+import com.example.rag.HnswVectorStore;
+import com.example.util.Chunk;
+
+import java.util.*;
+
+public class VectorStoreTest {
+    public static void main(String[] args) {
+        // DBなしで HNSW を組み立てて、総当たりとの一致率（recall@k）を確認する
+        int n = 2000, dim = 256, k = 3, queries = 200;
+        Random rnd = new Random(1);
+
+        HnswVectorStore store = new HnswVectorStore(16, 200, 64);
+        List<float[]> vectors = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            float[] v = new float[dim];
+            for (int d = 0; d < dim; d++) v[d] = (float) rnd.nextGaussian();
+            vectors.add(v);
+            store.add(new Chunk("doc-" + i, "FAQ", "chunk-" + i), v);
+        }
+
+        int hit = 0;
+        long nanos = 0;
+        for (int q = 0; q < queries; q++) {
+            float[] query = new float[dim];
+            for (int d = 0; d < dim; d++) query[d] = (float) rnd.nextGaussian();
+
+            long start = System.nanoTime();
+            List<Chunk> result = store.search(query, k);
+            nanos += System.nanoTime() - start;
+
+            // 総当たりの正解
+            Integer[] ids = new Integer[n];
+            for (int i = 0; i < n; i++) ids[i] = i;
+            Arrays.sort(ids, Comparator.comparingDouble(i -> dist(query, vectors.get(i))));
+            Set<String> truth = new HashSet<>();
+            for (int i = 0; i < k; i++) truth.add("chunk-" + ids[i]);
+            for (Chunk c : result) if (truth.contains(c.content())) hit++;
+        }
+
+        System.out.println("size=" + store.size());
+        System.out.println("recall@" + k + "=" + (double) hit / (queries * k));
+        System.out.println("avg search us=" + nanos / queries / 1000);
+    }
+
+    private static double dist(float[] a, float[] b) {
+        double s = 0;
+        for (int i = 0; i < a.length; i++) s += (a[i] - b[i]) * (a[i] - b[i]);
+        return s;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.test.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * OpenAI API のスタブ（/v1/embeddings と /v1/chat/completions、stream=true の SSE も含む）。
+ * 応答時間は対数正規分布（中央値ミリ秒・σ）で、一定の割合で 500 と 429（retry-after 付き）を返す。
+ * Embedding はテキストのハッシュを種にした決定的な単位ベクトルなので、同じ文には同じベクトルが返る。
+ */
+public class StubOpenAiServer {
+    public static final int DIMENSIONS = 1536;
+
+    private static final String ANSWER = "パスワードを忘れた場合は、ログイン画面の「パスワードをお忘れですか？」から"
+            + "登録メールアドレスを入力してください。数分以内に再設定用のリンクが届きます。";
+    private static final String SUMMARY = "- スレッドでは問い合わせ対応の手順が議論された\n- 期限は今週金曜日\n- 担当者が決定した";
+    private static final String REPORT = "{\"summary\":\"今月の売上は前月比で増加しました。\","
+            + "\"insights\":[\"増加傾向\"],\"recommendations\":[\"在庫を確保する\"]}";
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "stub-openai");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private volatile double embeddingMedianMillis = 80;
+    private volatile double chatMedianMillis = 600;
+    private volatile double sigma = 0.5;
+    private volatile long tokenIntervalMillis = 30;
+    private volatile double errorRate = 0.0;
+    private volatile double rateLimitRate = 0.0;
+
+    private final LongAdder embeddingRequests = new LongAdder();
+    private final LongAdder chatRequests = new LongAdder();
+    private final LongAdder injectedErrors = new LongAdder();
+    private final LongAdder injectedRateLimits = new LongAdder();
+
+    public StubOpenAiServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/v1/embeddings", exchange -> handle(exchange, true));
+        server.createContext("/v1/chat/completions", exchange -> handle(exchange, false));
+    }
+
+    // Embeddings の応答時間の中央値（ミリ秒）
+    public void setEmbeddingMedianMillis(double embeddingMedianMillis) {
+        this.embeddingMedianMillis = embeddingMedianMillis;
+    }
+
+    // Chat Completions の応答時間（stream のときは最初のトークンまで）の中央値（ミリ秒）
+    public void setChatMedianMillis(double chatMedianMillis) {
+        this.chatMedianMillis = chatMedianMillis;
+    }
+
+    // 対数正規分布の σ（大きいほど裾が重い）
+    public void setSigma(double sigma) {
+        this.sigma = sigma;
+    }
+
+    // stream のトークン間隔（ミリ秒）
+    public void setTokenIntervalMillis(long tokenIntervalMillis) {
+        this.tokenIntervalMillis = tokenIntervalMillis;
+    }
+
+    // 500 を返す割合（0〜1）
+    public void setErrorRate(double errorRate) {
+        this.errorRate = errorRate;
+    }
+
+    // 429 を返す割合（0〜1）
+    public void setRateLimitRate(double rateLimitRate) {
+        this.rateLimitRate = rateLimitRate;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort() + "/v1";
+    }
+
+    public long embeddingRequests() { return embeddingRequests.sum(); }
+    public long chatRequests() { return chatRequests.sum(); }
+    public long injectedErrors() { return injectedErrors.sum(); }
+    public long injectedRateLimits() { return injectedRateLimits.sum(); }
+
+    /**
+     * テキストから決定的に作る単位ベクトル（スタブの Embedding と同じもの）
+     */
+    public static double[] embeddingOf(String text) {
+        SplittableRandom random = new SplittableRandom(text.hashCode());
+        double[] v = new double[DIMENSIONS];
+        double norm = 0;
+        for (int i = 0; i < v.length; i++) {
+            v[i] = random.nextDouble() * 2 - 1;
+            norm += v[i] * v[i];
+        }
+        norm = Math.sqrt(norm);
+        for (int i = 0; i < v.length; i++) v[i] /= norm;
+        return v;
+    }
+
+    private void handle(HttpExchange exchange, boolean embeddings) throws IOException {
+        try (exchange) {
+            JsonNode request = mapper.readTree(exchange.getRequestBody());
+            (embeddings ? embeddingRequests : chatRequests).increment();
+
+            double dice = ThreadLocalRandom.current().nextDouble();
+            if (dice < rateLimitRate) {
+                injectedRateLimits.increment();
+                exchange.getResponseHeaders().add("retry-after-ms", "200");
+                send(exchange, 429, "{\"error\":{\"message\":\"Rate limit reached\",\"type\":\"requests\"}}");
+                return;
+            }
+            if (dice < rateLimitRate + errorRate) {
+                injectedErrors.increment();
+                sleep(sample(embeddings ? embeddingMedianMillis : chatMedianMillis));
+                send(exchange, 500, "{\"error\":{\"message\":\"The server had an error\",\"type\":\"server_error\"}}");
+                return;
+            }
+
+            if (embeddings) {
+                sleep(sample(embeddingMedianMillis));
+                send(exchange, 200, embeddingsResponse(request.get("input")));
+            } else if (request.path("stream").asBoolean(false)) {
+                stream(exchange, contentFor(request));
+            } else {
+                sleep(sample(chatMedianMillis));
+                String json = "{\"object\":\"chat.completion\",\"choices\":[{\"index\":0,\"message\":"
+                        + "{\"role\":\"assistant\",\"content\":" + mapper.writeValueAsString(contentFor(request))
+                        + "},\"finish_reason\":\"stop\"}]}";
+                send(exchange, 200, json);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void stream(HttpExchange exchange, String content) throws IOException, InterruptedException {
+        sleep(sample(chatMedianMillis));
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        OutputStream out = exchange.getResponseBody();
+        // 数文字ずつ delta として流す
+        for (int i = 0; i < content.length(); i += 4) {
+            String token = content.substring(i, Math.min(content.length(), i + 4));
+            String json = "{\"choices\":[{\"index\":0,\"delta\":{\"content\":" + mapper.writeValueAsString(token) + "}}]}";
+            out.write(("data: " + json + "\n\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+            sleep(tokenIntervalMillis);
+        }
+        out.write("data: [DONE]\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    // システムプロンプトで用途（レポート / 要約 / FAQ 回答）を見分ける
+    private static String contentFor(JsonNode request) {
+        String system = request.path("messages").path(0).path("content").asText("");
+        if (system.contains("business reports")) return REPORT;
+        if (system.contains("summarizes Slack threads")) return SUMMARY;
+        return ANSWER;
+    }
+
+    private static String embeddingsResponse(JsonNode input) {
+        StringBuilder sb = new StringBuilder(input.size() * DIMENSIONS * 12).append("{\"object\":\"list\",\"data\":[");
+        for (int n = 0; n < input.size(); n++) {
+            if (n > 0) sb.append(',');
+            sb.append("{\"object\":\"embedding\",\"index\":").append(n).append(",\"embedding\":[");
+            double[] v = embeddingOf(input.get(n).asText());
+            for (int i = 0; i < v.length; i++) {
+                if (i > 0) sb.append(',');
+                sb.append((float) v[i]);
+            }
+            sb.append("]}");
+        }
+        return sb.append("],\"model\":\"text-embedding-3-small\"}").toString();
+    }
+
+    private long sample(double medianMillis) {
+        return Math.round(medianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian()));
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) Thread.sleep(millis);
+    }
+
+    private static void send(HttpExchange exchange, int status, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
@@ -0,0 +1,180 @@
+package com.example.test.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Slack Web API のスタブ。Bolt の MethodsClient を {@link #apiUrlPrefix()} に向けて使う。
+ * SlackService が呼ぶメソッド（chat.postMessage / chat.update / conversations.replies（cursor ページング）/ files.* と
+ * response_url）だけを受け付け、投稿・更新・アップロード完了を {@link Post} としてリスナーに通知する。
+ */
+public class StubSlackServer {
+    /**
+     * 投稿の通知。method は chat.postMessage / chat.update / files.completeUploadExternal / response_url
+     */
+    public record Post(String method, String channel, String text) {}
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(r -> {
+        Thread t = new Thread(r, "stub-slack");
+        t.setDaemon(true);
+        return t;
+    });
+    private final AtomicLong sequence = new AtomicLong();
+
+    private volatile double apiMedianMillis = 30;
+    private volatile double sigma = 0.3;
+    private volatile List<String> threadMessages = List.of("スレッドのメッセージ");
+    private volatile Consumer<Post> listener = post -> {};
+
+    public StubSlackServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.setExecutor(executor);
+        server.createContext("/api/", this::handleApi);
+        server.createContext("/upload/", exchange -> {
+            try (exchange) {
+                exchange.getRequestBody().readAllBytes();
+                send(exchange, "text/plain", "OK");
+            }
+        });
+        server.createContext("/respond/", exchange -> {
+            try (exchange) {
+                JsonNode body = mapper.readTree(exchange.getRequestBody());
+                String channel = exchange.getRequestURI().getPath().substring("/respond/".length());
+                listener.accept(new Post("response_url", channel, body.path("text").asText()));
+                send(exchange, "text/plain", "ok");
+            }
+        });
+    }
+
+    // Web API の応答時間の中央値（ミリ秒）
+    public void setApiMedianMillis(double apiMedianMillis) {
+        this.apiMedianMillis = apiMedianMillis;
+    }
+
+    // conversations.replies が返すスレッドのメッセージ
+    public void setThreadMessages(List<String> threadMessages) {
+        this.threadMessages = List.copyOf(threadMessages);
+    }
+
+    public void setListener(Consumer<Post> listener) {
+        this.listener = listener;
+    }
+
+    public void start() {
+        server.start();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    public String baseUrl() {
+        return "http://localhost:" + server.getAddress().getPort();
+    }
+
+    public String apiUrlPrefix() {
+        return baseUrl() + "/api/";
+    }
+
+    public String responseUrl(String channel) {
+        return baseUrl() + "/respond/" + channel;
+    }
+
+    private void handleApi(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            String method = exchange.getRequestURI().getPath().substring("/api/".length());
+            Map<String, String> params = parseForm(new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8));
+            sleep(Math.round(apiMedianMillis * Math.exp(sigma * ThreadLocalRandom.current().nextGaussian())));
+
+            String channel = params.getOrDefault("channel", params.get("channel_id"));
+            String response = switch (method) {
+                case "auth.test" -> "{\"ok\":true,\"url\":\"https://load-test.slack.com/\",\"team\":\"load-test\","
+                        + "\"user\":\"bot\",\"team_id\":\"T0LOAD\",\"user_id\":\"U0BOT\",\"bot_id\":\"B0BOT\"}";
+                case "chat.postMessage", "chat.update" -> {
+                    String ts = "chat.update".equals(method) ? params.get("ts") : nextTs();
+                    listener.accept(new Post(method, channel, params.getOrDefault("text", "")));
+                    yield "{\"ok\":true,\"channel\":" + mapper.writeValueAsString(channel)
+                            + ",\"ts\":\"" + ts + "\"}";
+                }
+                case "conversations.replies" -> repliesResponse(params.get("ts"),
+                        Integer.parseInt(params.getOrDefault("limit", "1000")),
+                        Integer.parseInt(params.getOrDefault("cursor", "0")));
+                case "files.getUploadURLExternal" -> {
+                    String fileId = "F" + sequence.incrementAndGet();
+                    yield "{\"ok\":true,\"upload_url\":\"" + baseUrl() + "/upload/" + fileId + "\",\"file_id\":\"" + fileId + "\"}";
+                }
+                case "files.completeUploadExternal" -> {
+                    listener.accept(new Post(method, channel, params.getOrDefault("initial_comment", "")));
+                    yield "{\"ok\":true,\"files\":[{\"id\":\"F0\",\"title\":\"report.png\"}]}";
+                }
+                case "files.info" -> "{\"ok\":true,\"file\":{\"id\":" + mapper.writeValueAsString(params.get("file")) + "}}";
+                default -> "{\"ok\":false,\"error\":\"unknown_method\"}";
+            };
+            send(exchange, "application/json; charset=utf-8", response);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // cursor は次ページの先頭位置（本物と同じく最後のページでは next_cursor を空にする）
+    private String repliesResponse(String threadTs, int limit, int offset) throws IOException {
+        List<String> texts = threadMessages;
+        int end = Math.min(texts.size(), offset + Math.max(1, limit));
+        StringBuilder sb = new StringBuilder("{\"ok\":true,\"has_more\":").append(end < texts.size())
+                .append(",\"messages\":[");
+        for (int i = offset; i < end; i++) {
+            if (i > offset) sb.append(',');
+            String ts = i == 0 ? threadTs : threadTs + String.format("%04d", i);
+            sb.append("{\"type\":\"message\",\"user\":\"U0LOAD\",\"ts\":\"").append(ts)
+                    .append("\",\"thread_ts\":\"").append(threadTs)
+                    .append("\",\"text\":").append(mapper.writeValueAsString(texts.get(i))).append('}');
+        }
+        return sb.append("],\"response_metadata\":{\"next_cursor\":\"")
+                .append(end < texts.size() ? String.valueOf(end) : "").append("\"}}").toString();
+    }
+
+    private String nextTs() {
+        long n = sequence.incrementAndGet();
+        return (System.currentTimeMillis() / 1000) + "." + String.format("%06d", n % 1_000_000);
+    }
+
+    private static Map<String, String> parseForm(String body) {
+        Map<String, String> params = new HashMap<>();
+        for (String pair : body.split("&")) {
+            int eq = pair.indexOf('=');
+            if (eq <= 0) continue;
+            params.put(URLDecoder.decode(pair.substring(0, eq), StandardCharsets.UTF_8),
+                    URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return params;
+    }
+
+    private static void sleep(long millis) throws InterruptedException {
+        if (millis > 0) Thread.sleep(millis);
+    }
+
+    private static void send(HttpExchange exchange, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", contentType);
+        exchange.sendResponseHeaders(200, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+}
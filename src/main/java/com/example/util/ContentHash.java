@@ -0,0 +1,44 @@
+package com.example.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Objects;
+
+public class ContentHash {
+
+    /**
+     * Embedding モデル名とテキストから SHA-256（16進）を作る。
+     * モデルが変われば別のキーになるので、古いベクトルを誤って再利用しない。
+     */
+    public static String of(String model, String text) {
+        return sha256Hex(model + "\0" + text);
+    }
+
+    /**
+     * faq_chunks の重複判定キー。doc_id / section / content を US(0x1F) で連結した SHA-256。
+     * null は空文字として扱う（SQL 側の coalesce と同じ）。
+     * FaqRepository の既存行バックフィル SQL と同じ式なので、変えるときは両方そろえること。
+     */
+    public static String ofChunk(String docId, String section, String content) {
+        return sha256Hex(Objects.toString(docId, "") + "\u001f" + Objects.toString(section, "")
+                + "\u001f" + Objects.toString(content, ""));
+    }
+
+    /**
+     * レポートキャッシュのキー（ディスク上のファイル名にも使う）。各値を US(0x1F) で連結した SHA-256。
+     */
+    public static String ofReport(String reportType, String period, String csv, String fingerprint) {
+        return sha256Hex(reportType + "\u001f" + period + "\u001f" + csv + "\u001f" + fingerprint);
+    }
+
+    private static String sha256Hex(String s) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(md.digest(s.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
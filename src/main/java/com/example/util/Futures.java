@@ -0,0 +1,63 @@
+package com.example.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+
+/**
+ * CompletableFuture の cancel を上流へ伝えるための組み立て部品。
+ * thenApply / thenCompose でつないだ future を cancel しても元の future（HTTP 交換など）は止まらないので、
+ * タイムアウトで打ち切る経路はここを通してつなぐ。
+ */
+public class Futures {
+
+    /**
+     * downstream が cancel されたら upstream も cancel する（downstream をそのまま返す）
+     */
+    public static <T> CompletableFuture<T> cancelUpstream(CompletableFuture<?> upstream, CompletableFuture<T> downstream) {
+        downstream.whenComplete((r, e) -> {
+            if (downstream.isCancelled()) upstream.cancel(true);
+        });
+        return downstream;
+    }
+
+    /**
+     * first.thenCompose(next) と同じ結果を返す。返した future が cancel されたら、
+     * first と、next が返した実行中の future も cancel する。
+     */
+    public static <T, U> CompletableFuture<U> thenCompose(CompletableFuture<T> first,
+                                                          Function<? super T, ? extends CompletableFuture<U>> next) {
+        CompletableFuture<U> result = new CompletableFuture<>();
+        AtomicReference<CompletableFuture<U>> inner = new AtomicReference<>();
+        first.whenComplete((value, error) -> {
+            if (error != null) {
+                result.completeExceptionally(error);
+                return;
+            }
+            CompletableFuture<U> second;
+            try {
+                second = next.apply(value);
+            } catch (Throwable t) {
+                result.completeExceptionally(t);
+                return;
+            }
+            inner.set(second);
+            // next を呼んでいる間に cancel されていたら、始めたものも止める
+            if (result.isCancelled()) second.cancel(true);
+            second.whenComplete((v, e) -> {
+                if (e != null) {
+                    result.completeExceptionally(e);
+                } else {
+                    result.complete(v);
+                }
+            });
+        });
+        result.whenComplete((v, e) -> {
+            if (!result.isCancelled()) return;
+            first.cancel(true);
+            CompletableFuture<U> second = inner.get();
+            if (second != null) second.cancel(true);
+        });
+        return result;
+    }
+}
@@ -0,0 +1,23 @@
+package com.example.util;
+
+public class TokenEstimator {
+
+    /**
+     * OpenAI のトークン数をざっくり見積もる（tokenizer を持たないための近似）。
+     * 日本語などの非ASCII文字は1文字≒1トークン、ASCIIは4文字≒1トークンとして数える。
+     * 実際より多めに出るので、予算の上限判定に使う分には安全側になる。
+     */
+    public static int estimate(String text) {
+        if (text == null || text.isEmpty()) return 0;
+        int ascii = 0;
+        int other = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < 0x80) {
+                ascii++;
+            } else {
+                other++;
+            }
+        }
+        return other + (ascii + 3) / 4;
+    }
+}